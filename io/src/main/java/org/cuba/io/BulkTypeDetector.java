@@ -0,0 +1,382 @@
+package org.cuba.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Detects types of many files in parallel using {@link TypeDetector}
+ * <p>Every file is opened only to read its header by positional channel reads.<br>
+ *    Count of simultaneously opened files never exceeds parallelism, and count of files scheduled<br>
+ *    ahead of consumer is bounded by {@link #window(int)}, so even directory<br>
+ *    trees with millions of files are processed with constant memory</p>
+ * <p>Results are produced lazily as {@link Stream} or passed to callback on the<br>
+ *    calling thread. In ordered mode results follow order of paths, otherwise<br>
+ *    they are returned as soon as detection completed</p>
+ * <p>Errors do not abort detection: file, which can not be read, and directory,<br>
+ *    which can not be listed, give {@link Result} with error, and walking goes on</p>
+ * <pre>
+ *     BulkTypeDetector bulk = new BulkTypeDetector().parallelism(16).ordered(false);
+ *     try(Stream&lt;BulkTypeDetector.Result&gt; results = bulk.detect(root)) {
+ *         results.forEach(result -&gt; System.out.println(result.getPath() + " " + result.getExtension()));
+ *     }
+ * </pre>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public class BulkTypeDetector {
+    private final TypeDetector detector;
+    private ExecutorService executor;
+    private int parallelism;
+    private int window;
+    private boolean ordered;
+
+    /**
+     * Creates bulk detector which uses new {@link TypeDetector}
+     */
+    public BulkTypeDetector() {
+        this(new TypeDetector());
+    }
+
+    /**
+     * Creates bulk detector which uses specified {@link TypeDetector}.<br>
+     * By default parallelism is equal to count of available processors,<br>
+     * window is twice larger than parallelism and results are ordered
+     *
+     * @param detector detector of single file type
+     * @throws NullPointerException if <code>detector</code> is null
+     */
+    public BulkTypeDetector(TypeDetector detector) {
+        if(detector == null) {
+            throw new NullPointerException("Detector is null");
+        }
+
+        this.detector = detector;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+        this.ordered = true;
+    }
+
+    /**
+     * Sets count of threads, reading files simultaneously. Every detection<br>
+     * creates own fixed thread pool of this size, unless {@link #executor(ExecutorService)} is set
+     *
+     * @param parallelism count of threads
+     * @return this bulk detector
+     * @throws IllegalArgumentException if <code>parallelism</code> is less than 1
+     */
+    public BulkTypeDetector parallelism(int parallelism) {
+        if(parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be greater than 0");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Sets max count of files scheduled but not consumed yet.<br>
+     * Zero means twice larger than parallelism
+     *
+     * @param window max count of scheduled files
+     * @return this bulk detector
+     * @throws IllegalArgumentException if <code>window</code> is negative
+     */
+    public BulkTypeDetector window(int window) {
+        if(window < 0) {
+            throw new IllegalArgumentException("Window must not be negative");
+        }
+        this.window = window;
+        return this;
+    }
+
+    /**
+     * Sets order of results
+     *
+     * @param ordered true if results must follow order of paths,<br>
+     *        false if results can be returned in order of completion
+     * @return this bulk detector
+     */
+    public BulkTypeDetector ordered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * Sets executor which runs detections, e. g. {@link java.util.concurrent.ForkJoinPool}.<br>
+     * Executor is not shut down by bulk detector. Count of opened files is bounded<br>
+     * by count of executor threads and by window
+     *
+     * @param executor executor for detections or null to create fixed pool of parallelism size
+     * @return this bulk detector
+     */
+    public BulkTypeDetector executor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Detects types of all regular files in directory tree
+     * <p>Returned stream must be closed to release directory handles<br>
+     *    and threads, e. g. with try-with-resources construction</p>
+     * <p>Directory, which can not be opened, e. g. because of access rights, gives<br>
+     *    result with error and its subtree is skipped</p>
+     *
+     * @param root root of directory tree
+     * @return lazy stream of results
+     * @throws IOException if an error occurred at opening root directory
+     */
+    public Stream<Result> detect(Path root) throws IOException {
+        Stream<Path> paths = Files.walk(root).filter(path -> Files.isRegularFile(path));
+        return detect(paths);
+    }
+
+    /**
+     * Detects types of specified files
+     * <p>Returned stream must be closed to release threads. Closing it also closes <code>paths</code></p>
+     * <p>{@link UncheckedIOException} thrown by <code>paths</code>, e. g. by stream of {@link Files#walk},<br>
+     *    gives result with its cause as error, and next paths are still detected</p>
+     *
+     * @param paths stream of files
+     * @return lazy stream of results
+     */
+    public Stream<Result> detect(Stream<Path> paths) {
+        if(paths == null) {
+            throw new NullPointerException("Paths is null");
+        }
+
+        ExecutorService service = executor;
+        boolean own = service == null;
+        if(own) {
+            service = Executors.newFixedThreadPool(parallelism, runnable -> {
+                Thread thread = new Thread(runnable, "cuba-type-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        ExecutorService used = service;
+
+        ResultIterator iterator = new ResultIterator(paths.iterator(), used, own, window == 0 ? parallelism * 2 : window);
+        int characteristics = Spliterator.NONNULL | (ordered ? Spliterator.ORDERED : 0);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, characteristics), false)
+                            .onClose(() -> {
+                                iterator.cancel();
+                                if(own) {
+                                    used.shutdownNow();
+                                }
+                                paths.close();
+                            });
+    }
+
+    /**
+     * Detects types of all regular files in directory tree and passes results<br>
+     * to callback on the calling thread
+     *
+     * @param root root of directory tree
+     * @param callback consumer of results
+     * @throws IOException if an error occurred at opening root directory
+     */
+    public void detect(Path root, Consumer<Result> callback) throws IOException {
+        try(Stream<Result> results = detect(root)) {
+            results.forEach(callback);
+        }
+    }
+
+    /**
+     * Detects types of specified files and passes results to callback on the calling thread
+     *
+     * @param paths stream of files
+     * @param callback consumer of results
+     */
+    public void detect(Stream<Path> paths, Consumer<Result> callback) {
+        try(Stream<Result> results = detect(paths)) {
+            results.forEach(callback);
+        }
+    }
+
+    /**
+     * Detects type of one file. {@link TypeDetector} reuses direct header buffer cached for current thread by shared pool
+     *
+     * @param path file
+     * @return result of detection, never null
+     */
+    private Result detectOne(Path path) {
+        try {
+            return new Result(path, detector.extension(path), null);
+        } catch(IOException ioe) {
+            return new Result(path, null, ioe);
+        }
+    }
+
+    /**
+     * Converts error of paths source into result. Path is taken from {@link FileSystemException}
+     *
+     * @param uioe error thrown by source of paths
+     * @return result with error
+     */
+    private Result failed(UncheckedIOException uioe) {
+        IOException cause = uioe.getCause();
+        String file = cause instanceof FileSystemException ? ((FileSystemException)cause).getFile() : null;
+        return new Result(file == null ? null : Paths.get(file), null, cause);
+    }
+
+    private final class ResultIterator implements Iterator<Result> {
+        private final Iterator<Path> paths;
+        private final ExecutorService executor;
+        private final boolean own;
+        private final boolean ordered;
+        private final CompletionService<Result> completion;
+        private final ArrayDeque<Future<Result>> pending;
+        private final int window;
+        private int count;
+
+        private ResultIterator(Iterator<Path> paths, ExecutorService executor, boolean own, int window) {
+            this.paths = paths;
+            this.executor = executor;
+            this.own = own;
+            this.ordered = BulkTypeDetector.this.ordered;
+            this.completion = ordered ? null : new ExecutorCompletionService<Result>(executor);
+            this.pending = new ArrayDeque<>(window);
+            this.window = window;
+        }
+
+        @Override
+        public boolean hasNext() {
+            fill();
+            if(count == 0 && own) {
+                executor.shutdown();
+            }
+            return count > 0;
+        }
+
+        @Override
+        public Result next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Future<Result> future;
+            try {
+                future = ordered ? pending.poll() : completion.take();
+                if(!ordered) {
+                    pending.remove(future);
+                }
+                count--;
+                return future.get();
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Detection interrupted", ie);
+            } catch(ExecutionException ee) {
+                Throwable cause = ee.getCause();
+                if(cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                if(cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        private void fill() {
+            while(count < window) {
+                Callable<Result> task;
+                try {
+                    if(!paths.hasNext()) {
+                        break;
+                    }
+                    Path path = paths.next();
+                    task = () -> detectOne(path);
+                } catch(UncheckedIOException uioe) {
+                    Result result = failed(uioe);
+                    task = () -> result;
+                }
+                pending.add(ordered ? executor.submit(task) : completion.submit(task));
+                count++;
+            }
+        }
+
+        private void cancel() {
+            for(Future<Result> future : pending) {
+                future.cancel(false);
+            }
+            pending.clear();
+            count = 0;
+        }
+    }
+
+    /**
+     * Result of type detection for one file
+     */
+    public final class Result {
+        private final Path path;
+        private final String extension;
+        private final IOException error;
+
+        private Result(Path path, String extension, IOException error) {
+            this.path = path;
+            this.extension = extension;
+            this.error = error;
+        }
+
+        /**
+         * Returns path of file or of directory, which can not be listed
+         *
+         * @return path of file, null if failed source of paths did not tell it
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * Returns detected extension or null if type is unknown or file can not be read
+         *
+         * @return extension or null
+         */
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * Returns MIME-type for detected extension or null if it is unknown
+         *
+         * @return MIME-type or null
+         */
+        public String getMimeType() {
+            return extension == null ? null : detector.mimeType(extension);
+        }
+
+        /**
+         * Returns error occurred at reading file or at listing directory<br>
+         * or null if file was read successfully
+         *
+         * @return error or null
+         */
+        public IOException getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return path + " -> " + (error == null ? extension : error.toString());
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package org.cuba.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+import org.cuba.io.utils.SharedBufferPool;
+
+/**
+ * Detects compressed containers by signatures and stacks streaming decoders over them
+ * <p>Header of data is peeked from {@link ForthBackInputStream} and recognized by<br>
+ *    {@link TypeDetector}. If the type has registered decoder, decoder is stacked over<br>
+ *    the stream and header of decoded data is checked again, so nested containers,<br>
+ *    e. g. gzip of gzip, are unwrapped up to {@link #getMaxDepth()} layers. Signatures of<br>
+ *    types with registered decoder are matched directly, so many types sharing one<br>
+ *    signature, e. g. zip and documents based on it, do not hide the decoder. If signatures<br>
+ *    of several decoders match with equal weight, decoder registered earlier is used</p>
+ * <p>Only peeked header is kept by every {@link ForthBackInputStream} of the chain, other<br>
+ *    bytes pass through it, so data is buffered once, by decoder. Input buffer of decoder<br>
+ *    is sized for its format, e. g. 32 KB of deflate window for gzip</p>
+ * <p>Decoders of gzip ("gz") and zip ("zip") are provided by JDK. Zip stream is decoded<br>
+ *    to content of its first entry. Note that documents based on zip, e. g. "docx" or<br>
+ *    "jar", have the same signature; unregister "zip" to keep them as is. Bzip2 ("bz2")<br>
+ *    and Zstandard ("zst") have no JDK codecs: they are only detected, until decoders<br>
+ *    of some library are registered</p>
+ * <p>{@link Decoded} owns the chain: closing it closes all decoders and releases<br>
+ *    buffers of every {@link ForthBackInputStream} of the chain, including the stream<br>
+ *    passed to {@link #decode(ForthBackInputStream)}. Source stream is not closed,<br>
+ *    it is owned by caller. If decoding fails, layers built so far are closed before<br>
+ *    the error is thrown</p>
+ * <pre>
+ *     try(DecodingPipeline.Decoded decoded = pipeline.decode(new ForthBackInputStream(upload))) {
+ *         InputStream content = decoded.getStream();
+ *         if("bz2".equals(decoded.getExtension())) {
+ *             ...
+ *         }
+ *     }
+ * </pre>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public class DecodingPipeline {
+    /**
+     * Max count of decoded layers by default
+     */
+    public static final int DEFAULT_MAX_DEPTH = 4;
+    /**
+     * Size of deflate window, gzip decoder does not need larger input buffer
+     */
+    private static final int GZIP_BUFFER_SIZE = 32768;
+    /**
+     * Zip decoder of JDK reads through its own buffer of fixed size
+     */
+    private static final int ZIP_BUFFER_SIZE = 512;
+    /**
+     * Compressed containers, which are preferred to types with the same signature,<br>
+     * e. g. "bz2" to "tbz2", even if they have no registered decoder
+     */
+    private static final Set<String> CONTAINERS = new HashSet<>(Arrays.asList("7z", "bz2", "gz", "zip", "zst"));
+
+    private final TypeDetector detector;
+    private final Map<String, Codec> codecs = new ConcurrentHashMap<>();
+    /**
+     * Order of registration, which breaks ties of equally matched decoders
+     */
+    private final AtomicLong registrations = new AtomicLong();
+    private volatile int maxDepth = DEFAULT_MAX_DEPTH;
+
+    /**
+     * Creates pipeline with new {@link TypeDetector} and JDK decoders
+     */
+    public DecodingPipeline() {
+        this(new TypeDetector());
+    }
+
+    /**
+     * Creates pipeline with specified detector and JDK decoders
+     *
+     * @param detector detector of containers
+     */
+    public DecodingPipeline(TypeDetector detector) {
+        if(detector == null) {
+            throw new NullPointerException("Detector is null");
+        }
+
+        this.detector = detector;
+        register("gz", GZIP_BUFFER_SIZE, GZIPInputStream::new);
+        register("zip", ZIP_BUFFER_SIZE, (input, bufferSize) -> {
+            ZipInputStream zip = new ZipInputStream(input);
+            zip.getNextEntry();
+            return zip;
+        });
+    }
+
+    /**
+     * Registers decoder for type with specified extension, previous decoder of type is replaced.<br>
+     * Replaced decoder loses ties to decoders registered before this call
+     *
+     * @param extension extension of type, e. g. "bz2"
+     * @param bufferSize size of decoder's input buffer
+     * @param decoder decoder
+     * @throws IllegalArgumentException if <code>bufferSize</code> is less than 1
+     */
+    public void register(String extension, int bufferSize, StreamDecoder decoder) {
+        if(extension == null) {
+            throw new NullPointerException("Extension is null");
+        }
+        if(decoder == null) {
+            throw new NullPointerException("Decoder is null");
+        }
+        if(bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be greater than 0");
+        }
+
+        codecs.put(extension, new Codec(bufferSize, decoder, registrations.getAndIncrement()));
+    }
+
+    /**
+     * Removes decoder of type with specified extension
+     *
+     * @param extension extension of type
+     * @return true if decoder was registered
+     */
+    public boolean unregister(String extension) {
+        return codecs.remove(extension) != null;
+    }
+
+    /**
+     * Returns true if type with specified extension has registered decoder
+     *
+     * @param extension extension of type
+     * @return true if data of type can be decoded
+     */
+    public boolean isDecodable(String extension) {
+        return codecs.containsKey(extension);
+    }
+
+    /**
+     * Sets max count of decoded layers. Data with more layers is returned<br>
+     * partially decoded, which protects from recursive archives
+     *
+     * @param maxDepth max count of layers
+     * @throws IllegalArgumentException if <code>maxDepth</code> is negative
+     */
+    public void setMaxDepth(int maxDepth) {
+        if(maxDepth < 0) {
+            throw new IllegalArgumentException("Max depth must not be negative");
+        }
+
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Returns max count of decoded layers
+     *
+     * @return max count of layers
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Decodes all recognized layers of stream. Nothing is consumed from stream except<br>
+     * data read by decoders, so stream without known containers is returned as is
+     *
+     * @param stream stream of probably encoded data
+     * @return decoded stream and detected types
+     * @throws IOException if an error occurred at reading or container is damaged,<br>
+     *         decoders stacked over stream are closed in this case
+     */
+    public Decoded decode(ForthBackInputStream stream) throws IOException {
+        if(stream == null) {
+            throw new NullPointerException("Stream is null");
+        }
+
+        ForthBackInputStream current = stream;
+        List<String> encodings = new ArrayList<>();
+        List<Closeable> layers = new ArrayList<>();
+        layers.add(stream);
+        SharedBufferPool pool = SharedBufferPool.getDefault();
+        int length = Math.max(0, detector.maxSignatureLength());
+        byte[] header = pool.acquire(length);
+        try {
+            while(true) {
+                int read = Math.max(current.peek(0, header, 0, length), 0);
+                String extension = null;
+                Codec codec = null;
+                if(read > 0) {
+                    Map<String, List<Signature>> types = TypeDetector.getKnownTypes();
+                    int weight = 0;
+                    for(Map.Entry<String, Codec> entry : codecs.entrySet()) {
+                        int matched = matchWeight(types.get(entry.getKey()), header, read);
+                        if(matched > weight || matched > 0 && matched == weight && entry.getValue().order < codec.order) {
+                            weight = matched;
+                            extension = entry.getKey();
+                            codec = entry.getValue();
+                        }
+                    }
+                    if(codec == null) {
+                        for(String container : CONTAINERS) {
+                            int matched = matchWeight(types.get(container), header, read);
+                            if(matched > weight) {
+                                weight = matched;
+                                extension = container;
+                            }
+                        }
+                    }
+                    if(extension == null) {
+                        extension = detector.extension(header, 0, read);
+                    }
+                }
+                if(codec == null || encodings.size() >= maxDepth) {
+                    return new Decoded(current, encodings, extension, layers);
+                }
+
+                InputStream decoder = codec.decoder.decode(current, codec.bufferSize);
+                layers.add(decoder);
+                current = new ForthBackInputStream(decoder);
+                layers.add(current);
+                encodings.add(extension);
+            }
+        } catch(IOException | RuntimeException e) {
+            try {
+                close(layers.subList(1, layers.size()));
+            } catch(IOException ioe) {
+                e.addSuppressed(ioe);
+            }
+            throw e;
+        } finally {
+            pool.release(header);
+        }
+    }
+
+    /**
+     * Decodes all recognized layers of stream
+     *
+     * @see #decode(ForthBackInputStream)
+     *
+     * @param stream stream of probably encoded data
+     * @return decoded stream and detected types
+     * @throws IOException if an error occurred at reading or container is damaged
+     */
+    public Decoded decode(InputStream stream) throws IOException {
+        if(stream instanceof ForthBackInputStream) {
+            return decode((ForthBackInputStream)stream);
+        }
+        if(stream == null) {
+            throw new NullPointerException("Stream is null");
+        }
+        return decode(new ForthBackInputStream(stream));
+    }
+
+    /**
+     * Returns weight of the heaviest signature, which is fully matched by header
+     *
+     * @param signatures signatures of type, may be null for unknown type
+     * @param header header of data
+     * @param length length of header
+     * @return weight of matched signature or 0 if no signature matches
+     */
+    private static int matchWeight(List<Signature> signatures, byte[] header, int length) {
+        int weight = 0;
+        if(signatures == null) {
+            return weight;
+        }
+        for(Signature signature : signatures) {
+            if(signature.span() > length || signature.weight() <= weight) {
+                continue;
+            }
+            int offset = signature.getOffset();
+            int index = 0;
+            while(index < signature.length() && ((header[offset + index] ^ signature.byteAt(index)) & signature.maskAt(index)) == 0) {
+                index++;
+            }
+            if(index == signature.length()) {
+                weight = signature.weight();
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Closes layers of chain in reverse order. All layers are closed even if some of them fail
+     *
+     * @param layers decoders and streams from inner to outer
+     * @throws IOException the first error occurred at closing, others are suppressed
+     */
+    private static void close(List<Closeable> layers) throws IOException {
+        IOException error = null;
+        for(int i = layers.size() - 1; i >= 0; i--) {
+            try {
+                layers.get(i).close();
+            } catch(IOException ioe) {
+                if(error == null) {
+                    error = ioe;
+                } else {
+                    error.addSuppressed(ioe);
+                }
+            }
+        }
+        if(error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Result of {@link DecodingPipeline#decode(ForthBackInputStream)}
+     */
+    public static final class Decoded implements Closeable {
+        private final ForthBackInputStream stream;
+        private final List<String> encodings;
+        private final String extension;
+        private final List<Closeable> layers;
+
+        private Decoded(ForthBackInputStream stream, List<String> encodings, String extension, List<Closeable> layers) {
+            this.stream = stream;
+            this.encodings = Collections.unmodifiableList(encodings);
+            this.extension = extension;
+            this.layers = layers;
+        }
+
+        /**
+         * Returns stream of decoded data. It is closed by {@link #close()} of this result
+         *
+         * @return decoded stream
+         */
+        public ForthBackInputStream getStream() {
+            return stream;
+        }
+
+        /**
+         * Returns extensions of decoded layers from outer to inner, e. g. ["gz"]
+         *
+         * @return decoded layers, empty if data was not encoded
+         */
+        public List<String> getEncodings() {
+            return encodings;
+        }
+
+        /**
+         * Returns extension of decoded data, e. g. "tar", or of container without<br>
+         * registered decoder, e. g. "bz2"
+         *
+         * @return extension of decoded data or null if type is unknown
+         */
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * Returns true if at least one layer was decoded
+         *
+         * @return true if data was encoded
+         */
+        public boolean isDecoded() {
+            return !encodings.isEmpty();
+        }
+
+        /**
+         * Closes decoders and streams of chain from outer to inner. Source stream is not closed
+         */
+        @Override
+        public void close() throws IOException {
+            DecodingPipeline.close(layers);
+        }
+
+        @Override
+        public String toString() {
+            return encodings + " -> " + extension;
+        }
+    }
+
+    /**
+     * Registered decoder with size of its input buffer and order of registration
+     */
+    private static final class Codec {
+        private final int bufferSize;
+        private final StreamDecoder decoder;
+        private final long order;
+
+        private Codec(int bufferSize, StreamDecoder decoder, long order) {
+            this.bufferSize = bufferSize;
+            this.decoder = decoder;
+            this.order = order;
+        }
+    }
+}
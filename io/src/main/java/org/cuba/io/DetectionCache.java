@@ -0,0 +1,172 @@
+package org.cuba.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of detected file types for {@link TypeDetector}
+ * <p>Entries are keyed by file identity: file key (e. g. device and inode)<br>
+ *    when file system provides it, otherwise by absolute path. Every entry<br>
+ *    remembers size and modification time of file, so a lookup costs one<br>
+ *    attributes read instead of opening and reading the file. If size or<br>
+ *    modification time changed, entry is invalidated and file is read again.<br>
+ *    Entries are also invalidated by any change of signatures registry</p>
+ * <p>When cache is full, least recently used entry is evicted.<br>
+ *    Counters of hits, misses and evictions help to choose capacity</p>
+ * <p><b>Warning!</b> Changes, which keep both size and modification time<br>
+ *    (within resolution of file system clock), are not detected</p>
+ * <pre>
+ *     TypeDetector detector = new TypeDetector();
+ *     detector.setCache(new DetectionCache(10000));
+ * </pre>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public class DetectionCache {
+    private final int capacity;
+    private final LinkedHashMap<Object, CachedType> entries;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    /**
+     * Creates empty cache of specified capacity
+     *
+     * @param capacity max count of cached files
+     * @throws IllegalArgumentException if <code>capacity</code> is less than 1
+     */
+    public DetectionCache(int capacity) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be greater than 0");
+        }
+
+        this.capacity = capacity;
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+        this.entries = new LinkedHashMap<Object, CachedType>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, CachedType> eldest) {
+                if(size() > DetectionCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns extension of file from cache or detects it by specified detector
+     *
+     * @param path file
+     * @param detector detector used on cache miss
+     * @return file extension for data or null if it unknown
+     * @throws IOException if an error occurred at reading attributes or data of file
+     */
+    String extension(Path path, TypeDetector detector) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Object key = attributes.fileKey();
+        if(key == null) {
+            key = path.toAbsolutePath().normalize();
+        }
+        long size = attributes.size();
+        FileTime modified = attributes.lastModifiedTime();
+        long version = TypeDetector.signaturesVersion();
+
+        synchronized(entries) {
+            CachedType entry = entries.get(key);
+            if(entry != null && entry.size == size && entry.modified.equals(modified) && entry.version == version) {
+                hits.increment();
+                return entry.extension;
+            }
+        }
+
+        misses.increment();
+        String extension = detector.detect(path);
+        synchronized(entries) {
+            entries.put(key, new CachedType(size, modified, version, extension));
+        }
+        return extension;
+    }
+
+    /**
+     * Returns max count of cached files
+     *
+     * @return capacity of cache
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns current count of cached files
+     *
+     * @return count of cached files
+     */
+    public int size() {
+        synchronized(entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns count of lookups answered from cache
+     *
+     * @return count of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns count of lookups, which required reading of file
+     *
+     * @return count of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns count of entries removed because cache was full
+     *
+     * @return count of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Removes all entries. Counters are not reset
+     */
+    public void clear() {
+        synchronized(entries) {
+            entries.clear();
+        }
+    }
+
+    private static final class CachedType {
+        private final long size;
+        private final FileTime modified;
+        private final long version;
+        private final String extension;
+
+        private CachedType(long size, FileTime modified, long version, String extension) {
+            this.size = size;
+            this.modified = modified;
+            this.version = version;
+            this.extension = extension;
+        }
+    }
+}
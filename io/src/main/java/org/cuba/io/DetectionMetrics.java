@@ -0,0 +1,237 @@
+package org.cuba.io;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of {@link TypeDetector}
+ * <p>Detector with metrics set by {@link TypeDetector#setMetrics(DetectionMetrics)} records<br>
+ *    every header matching: found type, count of examined bytes and time of matching,<br>
+ *    and every header read from file or stream: time of reading. Time of matching and<br>
+ *    time of reading are recorded separately, so slow storage is not confused with slow<br>
+ *    signatures. Counters are {@link LongAdder}, so detection threads do not contend</p>
+ * <p>Metrics can be shared between detectors and published to JMX:</p>
+ * <pre>
+ *     DetectionMetrics metrics = new DetectionMetrics();
+ *     metrics.register("uploads");
+ *     detector.setMetrics(metrics);
+ * </pre>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public class DetectionMetrics implements DetectionMetricsMXBean {
+    /**
+     * Key of detections, which found no type, in map of hits
+     */
+    private static final String UNKNOWN = "";
+
+    private final LongAdder detections = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final Map<String, LongAdder> hits = new ConcurrentHashMap<>();
+    private final LatencyHistogram matchLatency = new LatencyHistogram();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private volatile ObjectName name;
+
+    /**
+     * Records matching of header
+     *
+     * @param extension found type or null if type is unknown
+     * @param length count of examined bytes
+     * @param nanos time of matching
+     */
+    void recordMatch(String extension, int length, long nanos) {
+        detections.increment();
+        bytes.add(length);
+        String key = extension == null ? UNKNOWN : extension;
+        LongAdder counter = hits.get(key);
+        if(counter == null) {
+            counter = hits.computeIfAbsent(key, k -> new LongAdder());
+        }
+        counter.increment();
+        matchLatency.record(nanos);
+    }
+
+    /**
+     * Records reading of header
+     *
+     * @param nanos time of reading
+     */
+    void recordRead(long nanos) {
+        reads.increment();
+        readLatency.record(nanos);
+    }
+
+    /**
+     * Returns histogram of matching time in nanoseconds
+     *
+     * @return histogram of matching time
+     */
+    public LatencyHistogram getMatchHistogram() {
+        return matchLatency;
+    }
+
+    /**
+     * Returns histogram of header reading time in nanoseconds
+     *
+     * @return histogram of reading time
+     */
+    public LatencyHistogram getReadHistogram() {
+        return readLatency;
+    }
+
+    @Override
+    public long getDetections() {
+        return detections.sum();
+    }
+
+    @Override
+    public long getUnknown() {
+        LongAdder unknown = hits.get(UNKNOWN);
+        return unknown == null ? 0 : unknown.sum();
+    }
+
+    @Override
+    public double getUnknownRate() {
+        long detections = getDetections();
+        return detections == 0 ? 0 : (double)getUnknown() / detections;
+    }
+
+    /**
+     * Returns count of detections of every found type, sorted by extension.<br>
+     * Unknown types are not included, see {@link #getUnknown()}
+     */
+    @Override
+    public Map<String, Long> getHitsByExtension() {
+        Map<String, Long> result = new TreeMap<>();
+        for(Map.Entry<String, LongAdder> entry : hits.entrySet()) {
+            if(!entry.getKey().equals(UNKNOWN)) {
+                result.put(entry.getKey(), entry.getValue().sum());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long getBytesExamined() {
+        return bytes.sum();
+    }
+
+    @Override
+    public double getAverageBytesExamined() {
+        long detections = getDetections();
+        return detections == 0 ? 0 : (double)getBytesExamined() / detections;
+    }
+
+    @Override
+    public long getReads() {
+        return reads.sum();
+    }
+
+    @Override
+    public double getMatchLatencyMean() {
+        return matchLatency.getMean();
+    }
+
+    @Override
+    public long getMatchLatencyP50() {
+        return matchLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getMatchLatencyP99() {
+        return matchLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getMatchLatencyP999() {
+        return matchLatency.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getMatchLatencyMax() {
+        return matchLatency.getMax();
+    }
+
+    @Override
+    public double getReadLatencyMean() {
+        return readLatency.getMean();
+    }
+
+    @Override
+    public long getReadLatencyP50() {
+        return readLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getReadLatencyP99() {
+        return readLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getReadLatencyP999() {
+        return readLatency.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getReadLatencyMax() {
+        return readLatency.getMax();
+    }
+
+    @Override
+    public void reset() {
+        detections.reset();
+        bytes.reset();
+        reads.reset();
+        hits.clear();
+        matchLatency.reset();
+        readLatency.reset();
+    }
+
+    /**
+     * Registers metrics in platform MBean server as<br>
+     * <code>org.cuba.io:type=DetectionMetrics,name=&lt;name&gt;</code>
+     *
+     * @param name name of metrics, e. g. name of detector's consumer
+     * @return name of registered bean
+     * @throws JMException if bean with the same name is registered or name is malformed
+     * @throws IllegalStateException if metrics are already registered
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        if(name == null) {
+            throw new NullPointerException("Name is null");
+        }
+        if(this.name != null) {
+            throw new IllegalStateException("Metrics are already registered as " + this.name);
+        }
+
+        ObjectName objectName = new ObjectName("org.cuba.io:type=DetectionMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.name = objectName;
+        return objectName;
+    }
+
+    /**
+     * Unregisters metrics from platform MBean server. Does nothing if metrics are not registered
+     *
+     * @throws JMException if bean is already unregistered by other code
+     */
+    public synchronized void unregister() throws JMException {
+        ObjectName name = this.name;
+        if(name == null) {
+            return;
+        }
+        this.name = null;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.unregisterMBean(name);
+    }
+}
@@ -0,0 +1,136 @@
+package org.cuba.io;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link DetectionMetrics}. Latencies are in nanoseconds
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public interface DetectionMetricsMXBean {
+    /**
+     * Returns count of matched headers
+     *
+     * @return count of detections
+     */
+    long getDetections();
+
+    /**
+     * Returns count of detections, which found no type
+     *
+     * @return count of unknown types
+     */
+    long getUnknown();
+
+    /**
+     * Returns part of detections, which found no type
+     *
+     * @return rate between 0 and 1
+     */
+    double getUnknownRate();
+
+    /**
+     * Returns count of detections of every type
+     *
+     * @return map of extensions and counts
+     */
+    Map<String, Long> getHitsByExtension();
+
+    /**
+     * Returns total count of header bytes passed to matching
+     *
+     * @return count of bytes
+     */
+    long getBytesExamined();
+
+    /**
+     * Returns average count of header bytes per detection
+     *
+     * @return average count of bytes
+     */
+    double getAverageBytesExamined();
+
+    /**
+     * Returns count of header reads from files and streams
+     *
+     * @return count of reads
+     */
+    long getReads();
+
+    /**
+     * Returns mean time of header matching
+     *
+     * @return mean time in nanoseconds
+     */
+    double getMatchLatencyMean();
+
+    /**
+     * Returns median time of header matching
+     *
+     * @return 50th percentile in nanoseconds
+     */
+    long getMatchLatencyP50();
+
+    /**
+     * Returns 99th percentile of time of header matching
+     *
+     * @return 99th percentile in nanoseconds
+     */
+    long getMatchLatencyP99();
+
+    /**
+     * Returns 99.9th percentile of time of header matching
+     *
+     * @return 99.9th percentile in nanoseconds
+     */
+    long getMatchLatencyP999();
+
+    /**
+     * Returns the longest time of header matching
+     *
+     * @return max time in nanoseconds
+     */
+    long getMatchLatencyMax();
+
+    /**
+     * Returns mean time of header reading
+     *
+     * @return mean time in nanoseconds
+     */
+    double getReadLatencyMean();
+
+    /**
+     * Returns median time of header reading
+     *
+     * @return 50th percentile in nanoseconds
+     */
+    long getReadLatencyP50();
+
+    /**
+     * Returns 99th percentile of time of header reading
+     *
+     * @return 99th percentile in nanoseconds
+     */
+    long getReadLatencyP99();
+
+    /**
+     * Returns 99.9th percentile of time of header reading
+     *
+     * @return 99.9th percentile in nanoseconds
+     */
+    long getReadLatencyP999();
+
+    /**
+     * Returns the longest time of header reading
+     *
+     * @return max time in nanoseconds
+     */
+    long getReadLatencyMax();
+
+    /**
+     * Removes all collected values
+     */
+    void reset();
+}
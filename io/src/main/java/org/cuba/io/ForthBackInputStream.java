@@ -2,75 +2,344 @@ package org.cuba.io;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+
+import org.cuba.io.utils.BufferPool;
+import org.cuba.io.utils.FileUtils;
+import org.cuba.io.utils.SharedBufferPool;
 
 /**
  * Allows you to use part of the content from the parent<br>
  * stream multiple times without having to re-read it<br>
  * This Stream is one of the simplest markable stream implementation<br> 
+ * <p>Buffer of mark is retained and reused by next calls of {@link #mark(int)},<br>
+ *    so repeated mark/reset cycles do not allocate memory. Buffer can be<br>
+ *    supplied by caller or taken from {@link BufferPool}</p>
+ * <p>Stream created with memory limit keeps in heap only the latest bytes<br>
+ *    of mark. Older bytes are moved to temporary file, so long marks, e. g.<br>
+ *    several megabytes of archive, do not increase heap usage</p>
+ * <pre>
+ *     try(ForthBackInputStream stream = new ForthBackInputStream(input, 65536, null)) {
+ *         stream.mark(64 * 1024 * 1024);
+ *         ...
+ *         stream.reset();
+ *     }
+ * </pre>
+ * <p>Besides single mark of {@link InputStream} API, stream supports many<br>
+ *    independent nested marks created by {@link #newMark(int)}. All marks share<br>
+ *    one buffer, so layered consumers, e. g. type detector and parser, read<br>
+ *    original stream only once. {@link #peek(int, int)} gives random access to<br>
+ *    bytes before and after current position without consuming them</p>
+ * <pre>
+ *     try(ForthBackInputStream.Mark mark = stream.newMark(4096)) {
+ *         byte[] header = stream.peek(0, 16);
+ *         ...
+ *         stream.reset(mark);
+ *     }
+ * </pre>
+ * <p>Stream does not own original stream: {@link #close()} only releases buffers and<br>
+ *    temporary file, original stream stays open and must be closed by its owner</p>
  * 
  * @author Kirill Bogatikov
  * @version 1.0
  */
 public class ForthBackInputStream extends InputStream {
     private InputStream original;
+    private BufferPool pool;
     private byte[] buffer;
-    private int bufferOffset = 0;
+    private boolean leased;
+    private SpillBuffer spill;
+    private byte[] scratch;
+    private final List<Mark> marks = new ArrayList<>();
+    private Mark mark;
+    private long base = 0;
+    private long limit = 0;
+    private int count = 0;
+    private int position = 0;
     
     /**
-     * Wraps another InputStream to read data from it
+     * Wraps another InputStream to read data from it. Buffer is taken<br>
+     * from {@link SharedBufferPool#getDefault()} and returned by {@link #close()}
      * 
      * @param original data source input stream
      */
     public ForthBackInputStream(InputStream original) {
+        this(original, SharedBufferPool.getDefault());
+    }
+    
+    /**
+     * Wraps another InputStream to read data from it and uses specified<br>
+     * array as buffer for marks not larger than its length. Larger buffer<br>
+     * is taken from {@link SharedBufferPool#getDefault()}
+     * 
+     * @param original data source input stream
+     * @param buffer initial buffer, can be null
+     */
+    public ForthBackInputStream(InputStream original, byte[] buffer) {
+        this(original, SharedBufferPool.getDefault());
+        this.buffer = buffer;
+    }
+    
+    /**
+     * Wraps another InputStream to read data from it and takes buffer<br>
+     * from specified pool. Buffer is returned to pool by {@link #close()}
+     * 
+     * @param original data source input stream
+     * @param pool pool of buffers, can be null
+     */
+    public ForthBackInputStream(InputStream original, BufferPool pool) {
         if(original == null) {
             throw new NullPointerException("Stream is null");
         }
         
         this.original = original;
+        this.pool = pool;
+    }
+    
+    /**
+     * Wraps another InputStream to read data from it and keeps in heap not more<br>
+     * than <code>memoryLimit</code> bytes of mark. Other bytes of mark are stored<br>
+     * in temporary file, which is deleted by {@link #close()}
+     * 
+     * @param original data source input stream
+     * @param memoryLimit max count of bytes of mark stored in heap
+     * @param directory directory for temporary file or null to use default temporary directory
+     * @throws IllegalArgumentException if <code>memoryLimit</code> is less than 1
+     */
+    public ForthBackInputStream(InputStream original, int memoryLimit, Path directory) {
+        this(original, (BufferPool)null);
+        this.spill = new SpillBuffer(memoryLimit, directory);
     }
     
     /**
      * This method can return one byte from different sources:
      * <ul>
      *     <li>if stream does not marked or cleared, returns byte from original input stream</li>
-     *     <li>if stream is marked, but buffer is empty, fills buffer and then read first byte from it</li>
-     *     <li>if stream is marked and buffer already filled, returns next byte from buffer</li>
+     *     <li>if stream is marked, but buffer is not filled, reads byte from original stream and stores it in buffer</li>
+     *     <li>if stream is reset and buffer is not read yet, returns next byte from buffer</li>
      * </ul>
      */
     @Override
     public int read() throws IOException {
-        if(buffer == null) {
+        if(position == count && marks.isEmpty()) {
             return original.read();
         }
-        if(bufferOffset >= buffer.length) {
-            buffer = null;
-            return original.read();
+        if(spill == null) {
+            if(position < count) {
+                int read = buffer[position++] & 0xFF;
+                release();
+                return read;
+            }
+            if(base + count < limit) {
+                int read = original.read();
+                if(read != -1) {
+                    ensureCapacity(count + 1, base + position);
+                    buffer[count++] = (byte)read;
+                    position++;
+                }
+                return read;
+            }
+        }
+        
+        byte[] single = scratch();
+        int read;
+        while((read = read(single, 0, 1)) == 0);
+        return read == -1 ? -1 : single[0] & 0xFF;
+    }
+    
+    /**
+     * Reads up to <code>length</code> bytes. Bytes stored in buffer are copied by<br>
+     * {@link System#arraycopy(Object, int, Object, int, int)}, other bytes are read<br>
+     * directly from original stream. Bytes read after mark are also copied to buffer
+     */
+    @Override
+    public int read(byte[] array, int offset, int length) throws IOException {
+        checkBounds(array, offset, length);
+        if(length == 0) {
+            return 0;
+        }
+        
+        if(position < count) {
+            int read = Math.min(length, count - position);
+            load(position, array, offset, read);
+            position += read;
+            release();
+            return read;
+        }
+        if(!marks.isEmpty() && base + count < limit) {
+            int read = original.read(array, offset, (int)Math.min(length, limit - base - count));
+            if(read > 0) {
+                store(array, offset, read);
+                position += read;
+            }
+            return read;
+        }
+        invalidate();
+        return original.read(array, offset, length);
+    }
+    
+    /**
+     * Skips up to <code>n</code> bytes. Bytes after mark are read into buffer to be<br>
+     * available after {@link #reset()}, other bytes are skipped by original stream
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if(n <= 0) {
+            return 0;
+        }
+        
+        if(position < count) {
+            int skipped = (int)Math.min(n, count - position);
+            position += skipped;
+            release();
+            return skipped;
+        }
+        if(!marks.isEmpty() && base + count < limit) {
+            byte[] scratch = scratch();
+            int read = read(scratch, 0, (int)Math.min(n, scratch.length));
+            return read == -1 ? 0 : read;
+        }
+        invalidate();
+        return original.skip(n);
+    }
+    
+    /**
+     * Returns count of bytes stored in buffer and not read yet plus count<br>
+     * of bytes which can be read from original stream without blocking
+     */
+    @Override
+    public int available() throws IOException {
+        int available = original.available() + count - position;
+        return available < 0 ? Integer.MAX_VALUE : available;
+    }
+    
+    /**
+     * Copies bytes at specified offset from current position without consuming them
+     * <p>Negative offset gives access to bytes before current position, which<br>
+     *    are still kept in buffer for marks. Bytes after current position are read<br>
+     *    from original stream if required and kept in buffer until they are read</p>
+     * 
+     * @param offset offset of the first byte from current position
+     * @param array destination array
+     * @param arrayOffset index of the first byte in array
+     * @param length max count of bytes
+     * @return count of copied bytes, less than <code>length</code> if end of stream reached,<br>
+     *         -1 if end of stream is located before <code>offset</code>, or 0 if <code>length</code> is 0
+     * @throws IOException if an error occurred at reading original stream
+     * @throws IndexOutOfBoundsException if byte at <code>offset</code> is not kept in buffer
+     */
+    public int peek(int offset, byte[] array, int arrayOffset, int length) throws IOException {
+        checkBounds(array, arrayOffset, length);
+        if(offset < -position) {
+            throw new IndexOutOfBoundsException("Offset is out of buffer");
+        }
+        if(length == 0) {
+            return 0;
+        }
+        
+        long start = base + position + offset;
+        long end = start + length;
+        while(base + count < end) {
+            byte[] target = spill == null ? ensureCapacity((int)(end - base), start) : scratch();
+            int read = spill == null ? original.read(target, count, (int)(end - base - count))
+                                     : original.read(target, 0, (int)Math.min(target.length, end - base - count));
+            if(read == -1) {
+                break;
+            }
+            if(spill == null) {
+                count += read;
+            } else {
+                spill.append(target, 0, read);
+                count += read;
+            }
+        }
+        
+        int index = (int)(start - base);
+        if(index >= count) {
+            return -1;
+        }
+        int copied = Math.min(length, count - index);
+        load(index, array, arrayOffset, copied);
+        return copied;
+    }
+    
+    /**
+     * Returns bytes at specified offset from current position without consuming them
+     * 
+     * @see #peek(int, byte[], int, int)
+     * 
+     * @param offset offset of the first byte from current position
+     * @param length max count of bytes
+     * @return array of bytes, shorter than <code>length</code> if end of stream reached
+     * @throws IOException if an error occurred at reading original stream
+     * @throws IndexOutOfBoundsException if byte at <code>offset</code> is not kept in buffer
+     */
+    public byte[] peek(int offset, int length) throws IOException {
+        byte[] array = new byte[length];
+        int copied = peek(offset, array, 0, length);
+        return copied == length ? array : Arrays.copyOf(array, Math.max(copied, 0));
+    }
+    
+    /**
+     * Creates new independent mark at current position. Bytes read after it are kept<br>
+     * in buffer until mark is released, while count of them does not exceed <code>readLimit</code>.<br>
+     * Reading more bytes than limits of all marks allow invalidates all marks
+     * 
+     * @param readLimit max count of bytes, which can be read before {@link #reset(Mark)}
+     * @return new mark
+     */
+    public Mark newMark(int readLimit) {
+        Mark mark = new Mark(base + position, base + position + Math.max(readLimit, 0));
+        marks.add(mark);
+        limit = Math.max(limit, mark.end);
+        return mark;
+    }
+    
+    /**
+     * Returns to position of specified mark
+     * 
+     * @param mark mark of this stream
+     * @throws IllegalStateException if mark is released or invalidated
+     */
+    public void reset(Mark mark) {
+        if(mark == null) {
+            throw new NullPointerException("Mark is null");
         }
-        if(bufferOffset == -1) {
-            int read = 0, count;
-            byte[] part = new byte[4096];
-            while((count = original.read(part, 0, buffer.length - read)) != -1 && read < buffer.length) {
-                System.arraycopy(part, 0, buffer, read, count);
-                read += count;
+        if(!marks.contains(mark)) {
+            throw new IllegalStateException("Mark is released or invalidated");
+        }
+        position = (int)(mark.offset - base);
+    }
+    
+    /**
+     * Releases specified mark. Buffer is cleared when the last mark is released<br>
+     * and all buffered bytes are read
+     * 
+     * @param mark mark of this stream
+     */
+    public void release(Mark mark) {
+        if(marks.remove(mark)) {
+            limit = base;
+            for(Mark other : marks) {
+                limit = Math.max(limit, other.end);
             }
-            bufferOffset = 0;
+            release();
         }
-        return buffer[bufferOffset++];
     }
 
     /**
      * Prepares buffer of specified size and and indicates the reading<br>
-     * method to the need to preserve the data in the buffer
+     * method to the need to preserve the data in the buffer.<br>
+     * Buffer of previous mark is reused if it is large enough.<br>
+     * Marks created by {@link #newMark(int)} are not affected
      */
     @Override
     public void mark(int bufferSize) {
         clear();
-        if(buffer == null) {
-            buffer = new byte[bufferSize];
-        } else if(bufferSize > buffer.length) {
-            buffer = Arrays.copyOf(buffer, bufferSize);
-        }
+        mark = newMark(bufferSize);
     }
     
     @Override
@@ -80,19 +349,177 @@ public class ForthBackInputStream extends InputStream {
     
     @Override
     public void reset() {
-        if(buffer == null) {
+        if(mark == null || !marks.contains(mark)) {
             throw new IllegalStateException("Not marked or cleared");
         }
-        bufferOffset = 0;
+        reset(mark);
     }
     
     /**
-     * Clears buffer, remove it from memory and remove mark.<br>
-     * After calling this method you can not use reset(), all read data will be<br>
-     * read from source stream and not stored in buffer 
+     * Removes mark set by {@link #mark(int)}. Memory of buffer is kept for next mark.<br>
+     * After calling this method you can not use reset(), read data will be<br>
+     * read from source stream and not stored in buffer, unless other marks exist 
      */
     public void clear() {
+        if(mark != null) {
+            release(mark);
+            mark = null;
+        }
+    }
+    
+    /**
+     * Removes all marks, returns buffer to pool if it was taken from pool,<br>
+     * and deletes temporary file. Original stream is not closed
+     */
+    @Override
+    public void close() throws IOException {
+        marks.clear();
+        mark = null;
+        count = 0;
+        position = 0;
+        if(leased) {
+            pool.release(buffer);
+        }
         buffer = null;
-        bufferOffset = -1;
+        leased = false;
+        if(scratch != null) {
+            SharedBufferPool.getDefault().release(scratch);
+            scratch = null;
+        }
+        if(spill != null) {
+            spill.close();
+        }
+    }
+    
+    /**
+     * Clears buffer if there are no marks and all buffered bytes are read
+     */
+    private void release() {
+        if(marks.isEmpty() && position == count) {
+            invalidate();
+        }
+    }
+    
+    /**
+     * Removes all marks and clears buffer. Must be called only if all buffered bytes are read
+     */
+    private void invalidate() {
+        marks.clear();
+        mark = null;
+        base += count;
+        limit = base;
+        count = 0;
+        position = 0;
+        if(spill != null) {
+            spill.truncate();
+        }
+    }
+    
+    /**
+     * Copies bytes stored in buffer
+     */
+    private void load(int index, byte[] array, int offset, int length) throws IOException {
+        if(spill == null) {
+            System.arraycopy(buffer, index, array, offset, length);
+        } else {
+            spill.read(index, array, offset, length);
+        }
+    }
+    
+    /**
+     * Stores bytes read from original stream at the end of buffer
+     */
+    private void store(byte[] array, int offset, int length) throws IOException {
+        if(spill == null) {
+            ensureCapacity(count + length, base + position);
+            System.arraycopy(array, offset, buffer, count, length);
+        } else {
+            spill.append(array, offset, length);
+        }
+        count += length;
+    }
+    
+    /**
+     * Makes heap buffer large enough for <code>required</code> bytes. Bytes before<br>
+     * the first mark and <code>keep</code> stream offset are discarded if it is possible
+     * 
+     * @return heap buffer
+     */
+    private byte[] ensureCapacity(int required, long keep) {
+        if(buffer != null && buffer.length >= required) {
+            return buffer;
+        }
+        
+        for(Mark mark : marks) {
+            keep = Math.min(keep, mark.offset);
+        }
+        int discarded = (int)Math.max(0, Math.min(keep - base, position));
+        required -= discarded;
+        if(buffer != null && buffer.length >= required) {
+            System.arraycopy(buffer, discarded, buffer, 0, count - discarded);
+        } else {
+            long grown = buffer == null ? FileUtils.DEFAULT_BUFFER_SIZE : buffer.length * 2L;
+            int capacity = (int)Math.max(required, Math.min(grown, limit - base));
+            byte[] array = pool == null ? new byte[capacity] : pool.acquire(capacity);
+            if(buffer != null) {
+                System.arraycopy(buffer, discarded, array, 0, count - discarded);
+                if(leased) {
+                    pool.release(buffer);
+                }
+            }
+            buffer = array;
+            leased = pool != null;
+        }
+        base += discarded;
+        count -= discarded;
+        position -= discarded;
+        return buffer;
+    }
+    
+    private byte[] scratch() {
+        if(scratch == null) {
+            scratch = SharedBufferPool.getDefault().acquire(FileUtils.DEFAULT_BUFFER_SIZE);
+        }
+        return scratch;
+    }
+    
+    private static void checkBounds(byte[] array, int offset, int length) {
+        if(array == null) {
+            throw new NullPointerException("Array is null");
+        }
+        if(offset < 0 || length < 0 || length > array.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+    
+    /**
+     * Position in stream, to which stream can be returned by {@link ForthBackInputStream#reset(Mark)}.<br>
+     * Closing of mark releases it
+     */
+    public final class Mark implements AutoCloseable {
+        private final long offset;
+        private final long end;
+        
+        private Mark(long offset, long end) {
+            this.offset = offset;
+            this.end = end;
+        }
+        
+        /**
+         * Returns true if stream can be returned to this mark
+         * 
+         * @return true if mark is not released or invalidated
+         */
+        public boolean isValid() {
+            return marks.contains(this);
+        }
+        
+        /**
+         * Releases this mark
+         */
+        @Override
+        public void close() {
+            release(this);
+        }
     }
 }
@@ -0,0 +1,149 @@
+package org.cuba.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe histogram of latencies with bounded relative error, similar to HdrHistogram
+ * <p>Values below 32 have own buckets. Every greater power of two is split into<br>
+ *    32 linear sub-buckets, so value is reported with relative error below 1/32<br>
+ *    (about 3%) in any range from nanoseconds to hours, and count of buckets is fixed:<br>
+ *    1888 counters. Every bucket is {@link LongAdder}, so threads recording the same<br>
+ *    latency do not contend on one cache line</p>
+ * <p>Percentiles are computed from counters read one by one, so they are consistent<br>
+ *    only when no values are recorded concurrently. The same holds for {@link #reset()}</p>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (63 - SUB_BITS) * SUB_COUNT + SUB_COUNT;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Creates empty histogram
+     */
+    public LatencyHistogram() {
+        for(int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records value, negative values are recorded as 0
+     *
+     * @param value latency, e. g. in nanoseconds
+     */
+    public void record(long value) {
+        if(value < 0) {
+            value = 0;
+        }
+
+        counts[index(value)].increment();
+        count.increment();
+        sum.add(value);
+        long current;
+        while(value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            continue;
+        }
+    }
+
+    /**
+     * Returns count of recorded values
+     *
+     * @return count of values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the greatest recorded value
+     *
+     * @return max value or 0 if nothing is recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns arithmetic mean of recorded values
+     *
+     * @return mean value or 0 if nothing is recorded
+     */
+    public double getMean() {
+        long count = this.count.sum();
+        return count == 0 ? 0 : (double)sum.sum() / count;
+    }
+
+    /**
+     * Returns value, which is not less than specified percentage of recorded values,<br>
+     * e. g. <code>getValueAtPercentile(99)</code> is 99th percentile. Value is the highest<br>
+     * value of its bucket, but not greater than {@link #getMax()}
+     *
+     * @param percentile percentage between 0 and 100
+     * @return value at percentile or 0 if nothing is recorded
+     * @throws IllegalArgumentException if <code>percentile</code> is out of range
+     */
+    public long getValueAtPercentile(double percentile) {
+        if(!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+            total += snapshot[i];
+        }
+        if(total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if(seen >= rank) {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Removes all recorded values
+     */
+    public void reset() {
+        for(int i = 0; i < BUCKETS; i++) {
+            counts[i].reset();
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    static int index(long value) {
+        if(value < SUB_COUNT) {
+            return (int)value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int)(value >>> shift) - SUB_COUNT;
+    }
+
+    static long highest(int index) {
+        if(index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long lowest = (long)(SUB_COUNT + index % SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
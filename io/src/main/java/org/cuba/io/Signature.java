@@ -0,0 +1,219 @@
+package org.cuba.io;
+
+import java.util.Arrays;
+
+/**
+ * Describes one signature (magic number) of file type
+ * <p>Simple signature is a sequence of bytes at the beginning of data. Such signatures<br>
+ *    also match data partially: the longer common prefix, the better match.</p>
+ * <p>Extended signature starts at specified <code>offset</code> and can contain<br>
+ *    <code>mask</code>. Byte of data matches byte of signature if<br>
+ *    <code>(data &amp; mask) == (signature &amp; mask)</code>, so zero mask byte is wildcard.<br>
+ *    Extended signature matches only completely, weight of match is<br>
+ *    count of significant (not wildcard) bytes</p>
+ * <p>For example, WAVE audio is a RIFF container with "WAVE" at offset 8:
+ * <pre>
+ *     byte[] bytes = { 'R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'A', 'V', 'E' };
+ *     byte[] mask = { -1, -1, -1, -1, 0, 0, 0, 0, -1, -1, -1, -1 };
+ *     Signature wave = new Signature(0, bytes, mask);
+ * </pre>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public final class Signature {
+    private final int offset;
+    private final byte[] bytes;
+    private final byte[] mask;
+    private final int weight;
+
+    /**
+     * Creates simple signature at the beginning of data
+     *
+     * @param bytes signature bytes
+     * @throws NullPointerException if <code>bytes</code> is null
+     */
+    public Signature(byte[] bytes) {
+        this(0, bytes, null);
+    }
+
+    /**
+     * Creates signature at specified offset without mask
+     *
+     * @param offset index of the first signature byte in data
+     * @param bytes signature bytes
+     * @throws NullPointerException if <code>bytes</code> is null
+     * @throws IllegalArgumentException if <code>offset</code> is negative
+     */
+    public Signature(int offset, byte[] bytes) {
+        this(offset, bytes, null);
+    }
+
+    /**
+     * Creates signature at specified offset with mask
+     *
+     * @param offset index of the first signature byte in data
+     * @param bytes signature bytes
+     * @param mask mask for signature bytes or null if all bits are significant
+     * @throws NullPointerException if <code>bytes</code> is null
+     * @throws IllegalArgumentException if <code>offset</code> is negative, if length of <code>mask</code><br>
+     *         differs from length of <code>bytes</code> or if extended signature has no significant bytes
+     */
+    public Signature(int offset, byte[] bytes, byte[] mask) {
+        if(bytes == null) {
+            throw new NullPointerException("Signature bytes is null");
+        }
+        if(offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative");
+        }
+        if(mask != null && mask.length != bytes.length) {
+            throw new IllegalArgumentException("Mask length must be equal to signature length");
+        }
+
+        this.offset = offset;
+        this.bytes = bytes.clone();
+        this.mask = mask == null || isFull(mask) ? null : mask.clone();
+
+        int weight = bytes.length;
+        if(this.mask != null) {
+            weight = 0;
+            for(byte part : this.mask) {
+                if(part != 0) {
+                    weight++;
+                }
+            }
+        }
+        if(weight == 0 && isExtended()) {
+            throw new IllegalArgumentException("Extended signature must contain significant bytes");
+        }
+        this.weight = weight;
+    }
+
+    /**
+     * Returns index of the first signature byte in data
+     *
+     * @return offset of signature
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns copy of signature bytes
+     *
+     * @return signature bytes
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    /**
+     * Returns copy of signature mask or null if all bits are significant
+     *
+     * @return signature mask or null
+     */
+    public byte[] getMask() {
+        return mask == null ? null : mask.clone();
+    }
+
+    /**
+     * Returns count of signature bytes
+     *
+     * @return count of signature bytes
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * Returns count of data bytes, required to match this signature,<br>
+     * e. g. offset plus length of signature
+     *
+     * @return count of data bytes covered by signature
+     */
+    public int span() {
+        return offset + bytes.length;
+    }
+
+    /**
+     * Returns count of significant bytes of signature
+     *
+     * @return weight of complete match
+     */
+    public int weight() {
+        return weight;
+    }
+
+    /**
+     * Returns true if signature has offset or mask
+     *
+     * @return true if signature is extended, false if it is simple
+     */
+    public boolean isExtended() {
+        return offset != 0 || mask != null;
+    }
+
+    /**
+     * Returns byte of signature without copying
+     *
+     * @param index index of byte
+     * @return byte of signature
+     */
+    byte byteAt(int index) {
+        return bytes[index];
+    }
+
+    /**
+     * Returns mask for byte of signature without copying
+     *
+     * @param index index of byte
+     * @return mask of byte, -1 if all bits are significant
+     */
+    byte maskAt(int index) {
+        return mask == null ? (byte)-1 : mask[index];
+    }
+
+    private static boolean isFull(byte[] mask) {
+        for(byte part : mask) {
+            if(part != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if(this == object) {
+            return true;
+        }
+        if(!(object instanceof Signature)) {
+            return false;
+        }
+        Signature other = (Signature)object;
+        return offset == other.offset && Arrays.equals(bytes, other.bytes) && Arrays.equals(mask, other.mask);
+    }
+
+    @Override
+    public int hashCode() {
+        return (offset * 31 + Arrays.hashCode(bytes)) * 31 + Arrays.hashCode(mask);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append('@').append(offset).append(" [");
+        for(int i = 0; i < bytes.length; i++) {
+            if(i > 0) {
+                builder.append(", ");
+            }
+            if(maskAt(i) == 0) {
+                builder.append("??");
+            } else {
+                builder.append(String.format("%02X", bytes[i] & 0xFF));
+            }
+        }
+        return builder.append(']').toString();
+    }
+}
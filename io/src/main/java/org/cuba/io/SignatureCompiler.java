@@ -0,0 +1,52 @@
+package org.cuba.io;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Build-time tool, which compiles JSON description of known signatures<br>
+ * into binary resource loaded by {@link TypeDetector}
+ * <p>Usage:
+ * <pre>
+ *     java org.cuba.io.SignatureCompiler known_types.json known_types.bin
+ * </pre>
+ * The io module runs it at <code>process-classes</code> phase, so packaged<br>
+ * artifact always contains both resources</p>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public final class SignatureCompiler {
+    private SignatureCompiler() {
+
+    }
+
+    /**
+     * Compiles JSON file into binary file
+     *
+     * @param args path to source JSON file and path to destination binary file
+     * @throws IOException if an error occurred at reading or writing
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length != 2) {
+            throw new IllegalArgumentException("Usage: SignatureCompiler <source json> <destination binary>");
+        }
+
+        Map<String, List<Signature>> types;
+        try(Reader reader = new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8)) {
+            types = SignatureLoader.readJson(reader);
+        }
+        try(OutputStream stream = new BufferedOutputStream(new FileOutputStream(args[1]))) {
+            SignatureLoader.writeBinary(types, stream);
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package org.cuba.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiled form of known signatures used by {@link TypeDetector}
+ * <p>Simple signatures are stored in a byte-indexed prefix tree built once.<br>
+ *    Every node remembers the extension which wins when the data matches<br>
+ *    exactly up to this node, so lookup costs O(longest match) and does not<br>
+ *    allocate anything</p>
+ * <p>Extended signatures (see {@link Signature}) are grouped by anchor: the first<br>
+ *    significant byte of signature. For every distinct anchor offset index keeps<br>
+ *    a table of candidates indexed by value of data byte at this offset, so only<br>
+ *    signatures whose anchor byte matches are verified. Verification compares<br>
+ *    8 masked bytes at once, see {@link SignatureMatcher}</p>
+ * <p>Every match has weight: length of common prefix for simple signature or<br>
+ *    count of significant bytes for extended one. The heaviest match wins.<br>
+ *    When several signatures have the same weight, the winner is the last one<br>
+ *    in order of registration, i. e. iteration order of compiled map. For built-in<br>
+ *    signatures it is legacy hash order of parsed JSON, see {@link SignatureLoader}.<br>
+ *    For simple signatures this is the same result the linear scan over known types returned</p>
+ * <p>Nodes of prefix tree also list extensions of signatures passing through them,<br>
+ *    so the best match of every extension can be collected in the same single pass</p>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.1
+ * @since 1.1
+ */
+final class SignatureIndex {
+    private static final byte[] NO_LABELS = new byte[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final Pattern[] NO_PATTERNS = new Pattern[0];
+    private static final int[] NO_MEMBERS = new int[0];
+    private static final AtomicLong versions = new AtomicLong();
+
+    private final Map<String, List<Signature>> types;
+    private final long version;
+
+    private final String[] extensions;
+    private final Node root;
+    private final int[] anchors;
+    private final Pattern[][][] buckets;
+    private int minLength = Integer.MAX_VALUE;
+    private int maxLength = -Integer.MAX_VALUE;
+
+    /**
+     * Compiles all signatures of specified types into index.<br>
+     * Iteration order of map defines order of registration, which breaks ties.<br>
+     * Map must not be modified after compilation, index is immutable
+     *
+     * @param types map of extensions and their signatures
+     */
+    SignatureIndex(Map<String, List<Signature>> types) {
+        this.types = types;
+        this.version = versions.incrementAndGet();
+
+        root = new Node();
+        root.rank = -1;
+
+        extensions = types.keySet().toArray(new String[types.size()]);
+        TreeMap<Integer, List<List<Pattern>>> anchored = new TreeMap<>();
+        int rank = 0, id = 0;
+        for(Map.Entry<String, List<Signature>> entry : types.entrySet()) {
+            for(Signature signature : entry.getValue()) {
+                minLength = Math.min(minLength, signature.span());
+                maxLength = Math.max(maxLength, signature.span());
+
+                if(signature.isExtended()) {
+                    Pattern pattern = new Pattern(entry.getKey(), id, signature, rank++);
+                    List<List<Pattern>> table = anchored.get(pattern.anchor);
+                    if(table == null) {
+                        table = new ArrayList<>(256);
+                        for(int i = 0; i < 256; i++) {
+                            table.add(new ArrayList<Pattern>());
+                        }
+                        anchored.put(pattern.anchor, table);
+                    }
+
+                    int index = pattern.anchor - signature.getOffset();
+                    int value = signature.byteAt(index) & 0xFF;
+                    int mask = signature.maskAt(index) & 0xFF;
+                    for(int i = 0; i < 256; i++) {
+                        if((i & mask) == (value & mask)) {
+                            table.get(i).add(pattern);
+                        }
+                    }
+                } else {
+                    insert(entry.getKey(), id, signature, rank++);
+                }
+            }
+            id++;
+        }
+
+        anchors = new int[anchored.size()];
+        buckets = new Pattern[anchored.size()][256][];
+        int index = 0;
+        for(Map.Entry<Integer, List<List<Pattern>>> entry : anchored.entrySet()) {
+            anchors[index] = entry.getKey();
+            for(int i = 0; i < 256; i++) {
+                buckets[index][i] = entry.getValue().get(i).toArray(NO_PATTERNS);
+            }
+            index++;
+        }
+    }
+
+    /**
+     * Returns compiled signatures
+     *
+     * @return map of extensions and their signatures in order of registration
+     */
+    Map<String, List<Signature>> types() {
+        return types;
+    }
+
+    /**
+     * Returns unique number of this index. Every compiled index has greater version than previous one
+     *
+     * @return version of index
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * Returns length of the shortest signature or {@link Integer#MAX_VALUE} if index is empty.<br>
+     * Length of extended signature includes its offset
+     *
+     * @return length of the shortest signature
+     */
+    int minLength() {
+        return minLength;
+    }
+
+    /**
+     * Returns length of the longest signature or -{@link Integer#MAX_VALUE} if index is empty.<br>
+     * Length of extended signature includes its offset
+     *
+     * @return length of the longest signature
+     */
+    int maxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Returns extension of signature which has the heaviest match<br>
+     * with specified data or null if nothing matches
+     *
+     * @param array data to match
+     * @param offset index of the first byte of data
+     * @param length count of bytes of data
+     * @return extension for data or null
+     */
+    String longestMatch(byte[] array, int offset, int length) {
+        Node node = root;
+        int weight = 0;
+        for(int i = offset, end = offset + length; i < end; i++) {
+            Node next = node.child(array[i]);
+            if(next == null) {
+                break;
+            }
+            node = next;
+            weight++;
+        }
+
+        String extension = node.extension;
+        int rank = node.rank;
+        for(int a = 0; a < anchors.length && anchors[a] < length; a++) {
+            Pattern[] candidates = buckets[a][array[offset + anchors[a]] & 0xFF];
+            for(int i = 0; i < candidates.length; i++) {
+                Pattern pattern = candidates[i];
+                int patternWeight = pattern.signature.weight();
+                if(patternWeight < weight || patternWeight == weight && pattern.rank < rank) {
+                    continue;
+                }
+                if(pattern.matches(array, offset, length)) {
+                    extension = pattern.extension;
+                    weight = patternWeight;
+                    rank = pattern.rank;
+                }
+            }
+        }
+        return weight == 0 ? null : extension;
+    }
+
+    /**
+     * Returns extension of signature which has the heaviest match with<br>
+     * remaining bytes of buffer or null if nothing matches. Position of<br>
+     * buffer is not changed, direct buffers are read without copying
+     *
+     * @param buffer data to match
+     * @return extension for data or null
+     */
+    String longestMatch(ByteBuffer buffer) {
+        if(buffer.hasArray()) {
+            return longestMatch(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+
+        int offset = buffer.position();
+        int length = buffer.remaining();
+
+        Node node = root;
+        int weight = 0;
+        for(int i = offset, end = offset + length; i < end; i++) {
+            Node next = node.child(buffer.get(i));
+            if(next == null) {
+                break;
+            }
+            node = next;
+            weight++;
+        }
+
+        String extension = node.extension;
+        int rank = node.rank;
+        ByteBuffer data = null;
+        for(int a = 0; a < anchors.length && anchors[a] < length; a++) {
+            Pattern[] candidates = buckets[a][buffer.get(offset + anchors[a]) & 0xFF];
+            for(int i = 0; i < candidates.length; i++) {
+                Pattern pattern = candidates[i];
+                int patternWeight = pattern.signature.weight();
+                if(patternWeight < weight || patternWeight == weight && pattern.rank < rank) {
+                    continue;
+                }
+                if(data == null) {
+                    data = SignatureMatcher.littleEndian(buffer);
+                }
+                if(pattern.matches(data, offset, length)) {
+                    extension = pattern.extension;
+                    weight = patternWeight;
+                    rank = pattern.rank;
+                }
+            }
+        }
+        return weight == 0 ? null : extension;
+    }
+
+    /**
+     * Returns the heaviest match of every extension matching specified data, sorted<br>
+     * by confidence of match, then by weight and then by order of registration.<br>
+     * Extension returned by {@link #longestMatch(byte[], int, int)} is always listed, but<br>
+     * complete match may precede it, if it is lighter than its partial prefix match.<br>
+     * Extensions matching zero bytes are not included, so list is empty exactly<br>
+     * when {@link #longestMatch(byte[], int, int)} returns null
+     *
+     * @param array data to match
+     * @param offset index of the first byte of data
+     * @param length count of bytes of data
+     * @param limit max count of candidates
+     * @return sorted list of candidates, may be empty
+     */
+    List<TypeDetector.Candidate> candidates(byte[] array, int offset, int length, int limit) {
+        int[] weights = new int[extensions.length];
+        int[] ranks = new int[extensions.length];
+        double[] coverages = new double[extensions.length];
+
+        int pathLength = Math.max(0, Math.min(length, maxLength));
+        Node[] path = new Node[pathLength + 1];
+        Node node = root;
+        int depth = 0;
+        path[0] = root;
+        for(int i = offset, end = offset + pathLength; i < end; i++) {
+            node = node.child(array[i]);
+            if(node == null) {
+                break;
+            }
+            path[++depth] = node;
+        }
+        for(int d = depth; d > 0; d--) {
+            Node current = path[d];
+            for(int m = 0; m < current.members.length; m++) {
+                int id = current.members[m];
+                if(weights[id] == 0) {
+                    weights[id] = d;
+                    ranks[id] = current.memberRanks[m];
+                    coverages[id] = (double)d / current.memberLengths[m];
+                }
+            }
+        }
+
+        for(int a = 0; a < anchors.length && anchors[a] < length; a++) {
+            Pattern[] candidates = buckets[a][array[offset + anchors[a]] & 0xFF];
+            for(int i = 0; i < candidates.length; i++) {
+                Pattern pattern = candidates[i];
+                int weight = pattern.signature.weight();
+                int id = pattern.id;
+                if(weight < weights[id] || weight == weights[id] && pattern.rank < ranks[id]) {
+                    continue;
+                }
+                if(pattern.matches(array, offset, length)) {
+                    weights[id] = weight;
+                    ranks[id] = pattern.rank;
+                    coverages[id] = 1.0;
+                }
+            }
+        }
+
+        List<Integer> matched = new ArrayList<>();
+        double[] confidences = new double[extensions.length];
+        for(int id = 0; id < extensions.length; id++) {
+            if(weights[id] > 0) {
+                matched.add(id);
+                confidences[id] = coverages[id] * weights[id] / (weights[id] + 1);
+            }
+        }
+        matched.sort((first, second) -> {
+            if(confidences[first] != confidences[second]) {
+                return Double.compare(confidences[second], confidences[first]);
+            }
+            if(weights[first] != weights[second]) {
+                return Integer.compare(weights[second], weights[first]);
+            }
+            return Integer.compare(ranks[second], ranks[first]);
+        });
+
+        List<TypeDetector.Candidate> result = new ArrayList<>(Math.min(limit, matched.size()));
+        for(int i = 0; i < matched.size() && i < limit; i++) {
+            int id = matched.get(i);
+            result.add(new TypeDetector.Candidate(extensions[id], weights[id], confidences[id]));
+        }
+        return result;
+    }
+
+    private void insert(String extension, int id, Signature signature, int rank) {
+        Node node = root;
+        node.extension = extension;
+        node.rank = rank;
+        for(int i = 0; i < signature.length(); i++) {
+            node = node.childOrCreate(signature.byteAt(i));
+            node.extension = extension;
+            node.rank = rank;
+            node.addMember(id, rank, signature.length());
+        }
+    }
+
+    private static final class Pattern {
+        private final String extension;
+        private final int id;
+        private final Signature signature;
+        private final int rank;
+        private final int anchor;
+        private final SignatureMatcher matcher;
+
+        private Pattern(String extension, int id, Signature signature, int rank) {
+            this.extension = extension;
+            this.id = id;
+            this.signature = signature;
+            this.rank = rank;
+            this.anchor = signature.getOffset() + anchorIndex(signature);
+            this.matcher = new SignatureMatcher(signature);
+        }
+
+        private static int anchorIndex(Signature signature) {
+            for(int i = 0; i < signature.length(); i++) {
+                if(signature.maskAt(i) == -1) {
+                    return i;
+                }
+            }
+            for(int i = 0; i < signature.length(); i++) {
+                if(signature.maskAt(i) != 0) {
+                    return i;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Checks signature against data of array by {@link SignatureMatcher}
+         */
+        private boolean matches(byte[] array, int offset, int length) {
+            return signature.span() <= length && matcher.mismatch(array, offset + signature.getOffset()) < 0;
+        }
+
+        /**
+         * Checks signature against data of little-endian buffer by {@link SignatureMatcher}
+         */
+        private boolean matches(ByteBuffer data, int offset, int length) {
+            return signature.span() <= length && matcher.mismatch(data, offset + signature.getOffset()) < 0;
+        }
+    }
+
+    private static final class Node {
+        private byte[] labels = NO_LABELS;
+        private Node[] children = NO_CHILDREN;
+        private String extension;
+        private int rank;
+        private int[] members = NO_MEMBERS;
+        private int[] memberRanks = NO_MEMBERS;
+        private int[] memberLengths = NO_MEMBERS;
+
+        /**
+         * Remembers that signature of extension with specified id passes through this node.<br>
+         * For every extension node keeps the latest rank and the shortest signature length
+         */
+        private void addMember(int id, int rank, int length) {
+            for(int i = 0; i < members.length; i++) {
+                if(members[i] == id) {
+                    memberRanks[i] = rank;
+                    memberLengths[i] = Math.min(memberLengths[i], length);
+                    return;
+                }
+            }
+
+            int count = members.length;
+            members = Arrays.copyOf(members, count + 1);
+            memberRanks = Arrays.copyOf(memberRanks, count + 1);
+            memberLengths = Arrays.copyOf(memberLengths, count + 1);
+            members[count] = id;
+            memberRanks[count] = rank;
+            memberLengths[count] = length;
+        }
+
+        private Node child(byte label) {
+            int index = Arrays.binarySearch(labels, label);
+            return index < 0 ? null : children[index];
+        }
+
+        private Node childOrCreate(byte label) {
+            int index = Arrays.binarySearch(labels, label);
+            if(index >= 0) {
+                return children[index];
+            }
+
+            index = -index - 1;
+            int length = labels.length;
+
+            byte[] newLabels = new byte[length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(labels, index, newLabels, index + 1, length - index);
+            newLabels[index] = label;
+
+            Node[] newChildren = new Node[length + 1];
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(children, index, newChildren, index + 1, length - index);
+            newChildren[index] = new Node();
+
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[index];
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package org.cuba.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cuba.io.utils.FileUtils;
+import org.cuba.reflex.ParameterizedType;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+/**
+ * Reads and writes sets of known signatures
+ * <p>Signatures are described in JSON resource {@value #JSON_RESOURCE}. Every extension<br>
+ *    has list of signatures, every signature is either array of bytes at the beginning<br>
+ *    of data, where <code>null</code> is wildcard byte, or object with optional <code>offset</code>,<br>
+ *    required <code>bytes</code> and optional <code>mask</code> (see {@link Signature}):
+ * <pre>
+ *     "avi": [[0x52, 0x49, 0x46, 0x46, null, null, null, null, 0x41, 0x56, 0x49, 0x20]],
+ *     "tar": [{"offset": 257, "bytes": [0x75, 0x73, 0x74, 0x61, 0x72]}]
+ * </pre>
+ * <p>At build time<br>
+ *    {@link SignatureCompiler} converts it into compact binary resource {@value #BINARY_RESOURCE},<br>
+ *    which can be loaded by one bulk read without Gson and boxed values.</p>
+ * <p>Binary format (big-endian):
+ * <pre>
+ *     int     magic, {@value #MAGIC}
+ *     short   version, {@value #VERSION}
+ *     int     count of extensions
+ *     int     count of signatures
+ *     int     count of signature bytes
+ *     UTF[]   extensions table
+ *     short[] count of signatures for every extension
+ *     short[] offset, length and flags of every signature
+ *     byte[]  packed signature bytes, mask follows bytes of signature if flag {@value #FLAG_MASK} is set
+ * </pre>
+ * Extensions and signatures are written in iteration order of parsed JSON, so the<br>
+ * compiled resource detects types exactly like the JSON one</p>
+ * <p>Note that order of extensions is not the order of JSON file: JSON is parsed into<br>
+ *    {@link ConcurrentHashMap}, as the original detector did, and its hash order is kept<br>
+ *    for parity, because the order breaks ties between matches of the same weight.<br>
+ *    Signatures of one extension keep their order from file</p>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+final class SignatureLoader {
+    static final String JSON_RESOURCE = "known_types.json";
+    static final String BINARY_RESOURCE = "known_types.bin";
+    static final int MAGIC = 0x43554241;
+    static final short VERSION = 2;
+    static final int FLAG_MASK = 1;
+
+    private SignatureLoader() {
+
+    }
+
+    /**
+     * Loads known signatures from class path. Binary resource is preferred,<br>
+     * JSON resource is used if binary one is missing or damaged
+     *
+     * @return unmodifiable map of extensions and their signatures in legacy hash order
+     * @throws IOException if both resources can not be read
+     */
+    static Map<String, List<Signature>> load() throws IOException {
+        ClassLoader loader = SignatureLoader.class.getClassLoader();
+        try(InputStream stream = loader.getResourceAsStream(BINARY_RESOURCE)) {
+            if(stream != null) {
+                return readBinary(stream);
+            }
+        } catch(IOException ioe) {
+            System.err.println("Cannot load " + BINARY_RESOURCE + ", " + JSON_RESOURCE + " will be used. Caused by ");
+            ioe.printStackTrace();
+        }
+
+        try(InputStream stream = loader.getResourceAsStream(JSON_RESOURCE)) {
+            if(stream == null) {
+                throw new IOException("Resource " + JSON_RESOURCE + " not found");
+            }
+            return readJson(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Parses signatures described in JSON format
+     * <p>Extensions are ordered by iteration of {@link ConcurrentHashMap}, not as in JSON</p>
+     *
+     * @param reader source of JSON
+     * @return unmodifiable map of extensions and their signatures in legacy hash order
+     * @throws IOException if JSON is malformed, e. g. empty, or describes invalid signature
+     */
+    static Map<String, List<Signature>> readJson(Reader reader) throws IOException {
+        Gson gson = new GsonBuilder().setLenient().create();
+        Type hashMapType = new ParameterizedType(null, ConcurrentHashMap.class, String.class, JsonElement.class);
+
+        ConcurrentHashMap<String, JsonElement> types;
+        try {
+            types = gson.fromJson(reader, hashMapType);
+        } catch(JsonParseException | IllegalArgumentException | IllegalStateException | IndexOutOfBoundsException e) {
+            throw new IOException("Malformed signatures", e);
+        }
+        if(types == null) {
+            throw new IOException("Signatures are empty");
+        }
+
+        Map<String, List<Signature>> result = new LinkedHashMap<>();
+        for(Map.Entry<String, JsonElement> entry : types.entrySet()) {
+            result.put(entry.getKey(), Collections.unmodifiableList(signatures(entry.getKey(), entry.getValue())));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Converts JSON array of signatures of one extension
+     *
+     * @param extension extension, used in error messages
+     * @param json array of signatures
+     * @return parsed signatures
+     * @throws IOException if signatures are not array or one of them is invalid
+     */
+    private static List<Signature> signatures(String extension, JsonElement json) throws IOException {
+        if(!json.isJsonArray()) {
+            throw new IOException("Signatures of \"" + extension + "\" must be array");
+        }
+
+        List<Signature> signatures = new ArrayList<>();
+        for(JsonElement element : json.getAsJsonArray()) {
+            if(element.isJsonArray()) {
+                signatures.add(signature(extension, 0, element.getAsJsonArray(), null));
+            } else if(element.isJsonObject()) {
+                JsonObject object = element.getAsJsonObject();
+                JsonElement bytes = object.get("bytes");
+                JsonElement mask = object.get("mask");
+                if(bytes == null || !bytes.isJsonArray()) {
+                    throw new IOException("Signature of \"" + extension + "\" has no bytes");
+                }
+                if(mask != null && !mask.isJsonArray()) {
+                    throw new IOException("Mask of \"" + extension + "\" must be array");
+                }
+                int offset = object.has("offset") ? parseInt(extension, object.get("offset")) : 0;
+                signatures.add(signature(extension, offset, bytes.getAsJsonArray(), mask == null ? null : mask.getAsJsonArray()));
+            } else {
+                throw new IOException("Signature of \"" + extension + "\" must be array or object");
+            }
+        }
+        return signatures;
+    }
+
+    /**
+     * Converts JSON arrays of hex bytes to signature. Null byte is wildcard
+     *
+     * @param extension extension, used in error messages
+     * @param offset offset of signature
+     * @param bytes array of signature bytes
+     * @param mask array of mask bytes or null
+     * @return parsed signature
+     * @throws IOException if byte is not hex number, mask has null or length of mask differs
+     */
+    private static Signature signature(String extension, int offset, JsonArray bytes, JsonArray mask) throws IOException {
+        if(mask != null && mask.size() != bytes.size()) {
+            throw new IOException("Mask of \"" + extension + "\" differs from signature in length");
+        }
+        byte[] signature = new byte[bytes.size()];
+        byte[] signatureMask = new byte[bytes.size()];
+        for(int i = 0; i < signature.length; i++) {
+            JsonElement element = bytes.get(i);
+            if(element.isJsonNull()) {
+                continue;
+            }
+            signature[i] = parseByte(extension, element);
+            signatureMask[i] = mask == null ? (byte)0xFF : parseByte(extension, mask.get(i));
+        }
+        try {
+            return new Signature(offset, signature, signatureMask);
+        } catch(IllegalArgumentException iae) {
+            throw new IOException("Invalid signature of \"" + extension + "\"", iae);
+        }
+    }
+
+    private static byte parseByte(String extension, JsonElement element) throws IOException {
+        if(!element.isJsonPrimitive()) {
+            throw new IOException("Byte of \"" + extension + "\" must be hex number, but was " + element);
+        }
+        try {
+            return Integer.valueOf(element.getAsString().replace("0x", ""), 16).byteValue();
+        } catch(NumberFormatException nfe) {
+            throw new IOException("Byte of \"" + extension + "\" must be hex number, but was " + element, nfe);
+        }
+    }
+
+    private static int parseInt(String extension, JsonElement element) throws IOException {
+        try {
+            return element.getAsInt();
+        } catch(RuntimeException e) {
+            throw new IOException("Offset of \"" + extension + "\" must be number, but was " + element, e);
+        }
+    }
+
+    /**
+     * Parses signatures stored in binary format. Whole stream is read<br>
+     * at once and then parsed from memory
+     *
+     * @param stream source of binary signatures, will not be closed
+     * @return unmodifiable map of extensions and their signatures in order of resource
+     * @throws IOException if data can not be read, has unsupported format or is damaged
+     */
+    static Map<String, List<Signature>> readBinary(InputStream stream) throws IOException {
+        byte[] data = FileUtils.readAllBytes(stream, FileUtils.MAX_BUFFER_SIZE);
+        try {
+            return readBinary(data);
+        } catch(RuntimeException e) {
+            throw new IOException("Signatures resource is damaged", e);
+        }
+    }
+
+    private static Map<String, List<Signature>> readBinary(byte[] data) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+
+        if(input.readInt() != MAGIC) {
+            throw new IOException("Not a signatures resource");
+        }
+        short version = input.readShort();
+        if(version != VERSION) {
+            throw new IOException("Unsupported signatures version " + version);
+        }
+
+        int typesCount = input.readInt();
+        int signaturesCount = input.readInt();
+        int bytesCount = input.readInt();
+        if(typesCount < 0 || signaturesCount < 0 || bytesCount < 0 || typesCount > data.length
+                || signaturesCount > data.length || bytesCount > data.length) {
+            throw new IOException("Signatures resource is damaged");
+        }
+
+        String[] extensions = new String[typesCount];
+        for(int i = 0; i < typesCount; i++) {
+            extensions[i] = input.readUTF();
+        }
+        int[] counts = new int[typesCount];
+        int countsSum = 0;
+        for(int i = 0; i < typesCount; i++) {
+            counts[i] = input.readUnsignedShort();
+            countsSum += counts[i];
+        }
+        if(countsSum != signaturesCount) {
+            throw new IOException("Signatures resource is damaged");
+        }
+        int[] offsets = new int[signaturesCount];
+        int[] lengths = new int[signaturesCount];
+        int[] flags = new int[signaturesCount];
+        int packedCount = 0;
+        for(int i = 0; i < signaturesCount; i++) {
+            offsets[i] = input.readUnsignedShort();
+            lengths[i] = input.readUnsignedShort();
+            flags[i] = input.readUnsignedByte();
+            packedCount += (flags[i] & FLAG_MASK) != 0 ? lengths[i] * 2 : lengths[i];
+        }
+
+        int offset = data.length - input.available();
+        if(data.length - offset != bytesCount || packedCount != bytesCount) {
+            throw new IOException("Signatures resource is damaged");
+        }
+
+        Map<String, List<Signature>> result = new LinkedHashMap<>();
+        int signature = 0;
+        for(int i = 0; i < typesCount; i++) {
+            List<Signature> signatures = new ArrayList<>(counts[i]);
+            for(int j = 0; j < counts[i]; j++, signature++) {
+                byte[] bytes = Arrays.copyOfRange(data, offset, offset + lengths[signature]);
+                offset += bytes.length;
+                byte[] mask = null;
+                if((flags[signature] & FLAG_MASK) != 0) {
+                    mask = Arrays.copyOfRange(data, offset, offset + lengths[signature]);
+                    offset += mask.length;
+                }
+                signatures.add(new Signature(offsets[signature], bytes, mask));
+            }
+            result.put(extensions[i], Collections.unmodifiableList(signatures));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Writes signatures in binary format
+     *
+     * @param types map of extensions and their signatures
+     * @param stream destination stream, will not be closed
+     * @throws IOException if an error occurred at writing
+     */
+    static void writeBinary(Map<String, List<Signature>> types, OutputStream stream) throws IOException {
+        int signaturesCount = 0, bytesCount = 0;
+        for(Map.Entry<String, List<Signature>> entry : types.entrySet()) {
+            List<Signature> signatures = entry.getValue();
+            if(signatures.size() > 0xFFFF) {
+                throw new IOException("Extension " + entry.getKey() + " has too many signatures for binary format");
+            }
+            signaturesCount += signatures.size();
+            for(Signature signature : signatures) {
+                bytesCount += signature.getMask() == null ? signature.length() : signature.length() * 2;
+            }
+        }
+
+        DataOutputStream output = new DataOutputStream(stream);
+        output.writeInt(MAGIC);
+        output.writeShort(VERSION);
+        output.writeInt(types.size());
+        output.writeInt(signaturesCount);
+        output.writeInt(bytesCount);
+        for(String extension : types.keySet()) {
+            output.writeUTF(extension);
+        }
+        for(List<Signature> signatures : types.values()) {
+            output.writeShort(signatures.size());
+        }
+        for(List<Signature> signatures : types.values()) {
+            for(Signature signature : signatures) {
+                if(signature.getOffset() > 0xFFFF || signature.length() > 0xFFFF) {
+                    throw new IOException("Signature " + signature + " is too long for binary format");
+                }
+                output.writeShort(signature.getOffset());
+                output.writeShort(signature.length());
+                output.writeByte(signature.getMask() == null ? 0 : FLAG_MASK);
+            }
+        }
+        for(List<Signature> signatures : types.values()) {
+            for(Signature signature : signatures) {
+                output.write(signature.getBytes());
+                if(signature.getMask() != null) {
+                    output.write(signature.getMask());
+                }
+            }
+        }
+        output.flush();
+    }
+}
@@ -0,0 +1,200 @@
+package org.cuba.io;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Compares data with masked signature by 8 bytes at once
+ * <p>Bytes and mask of signature are packed into little-endian <code>long</code> words<br>
+ *    once. Data is read by {@link #getLong(byte[], int)} from array or by<br>
+ *    {@link ByteBuffer#getLong(int)} of little-endian buffer, so byte with the lowest<br>
+ *    index is the lowest byte of word and index of the first mismatching byte is<br>
+ *    <code>Long.numberOfTrailingZeros(difference) / 8</code>. Tail shorter than a word<br>
+ *    is compared byte by byte. Arrays are read directly, no buffer is allocated</p>
+ * <p>On Java 9+ words of array are read by little-endian view of<br>
+ *    <code>MethodHandles.byteArrayViewVarHandle</code>, found reflectively, which JIT<br>
+ *    compiles to a single load. On Java 8 word is assembled from 8 bytes</p>
+ * <p>{@link #mismatchScalar(byte[], int)} compares byte by byte only and is kept<br>
+ *    as reference implementation of the same contract</p>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+final class SignatureMatcher {
+    /**
+     * Reader of little-endian <code>long</code> from <code>byte[]</code> or null before Java 9
+     */
+    private static final MethodHandle LONG_VIEW = findLongView();
+
+    private final byte[] bytes;
+    private final byte[] mask;
+    private final long[] words;
+    private final long[] masks;
+
+    /**
+     * Packs bytes of signature. Offset of signature is not taken into account
+     *
+     * @param signature signature to compare with
+     */
+    SignatureMatcher(Signature signature) {
+        int length = signature.length();
+        this.bytes = new byte[length];
+        this.mask = new byte[length];
+        for(int i = 0; i < length; i++) {
+            mask[i] = signature.maskAt(i);
+            bytes[i] = (byte)(signature.byteAt(i) & mask[i]);
+        }
+
+        this.words = new long[length >>> 3];
+        this.masks = new long[length >>> 3];
+        ByteBuffer packedBytes = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer packedMask = ByteBuffer.wrap(mask).order(ByteOrder.LITTLE_ENDIAN);
+        for(int w = 0; w < words.length; w++) {
+            words[w] = packedBytes.getLong(w << 3);
+            masks[w] = packedMask.getLong(w << 3);
+        }
+    }
+
+    /**
+     * Reads 8 bytes of array as little-endian <code>long</code>
+     *
+     * @param array data
+     * @param index index of the lowest byte of word
+     * @return word of data
+     */
+    static long getLong(byte[] array, int index) {
+        if(LONG_VIEW != null) {
+            try {
+                return (long)LONG_VIEW.invokeExact(array, index);
+            } catch(RuntimeException | Error e) {
+                throw e;
+            } catch(Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+        return (array[index] & 0xFFL)
+             | (array[index + 1] & 0xFFL) << 8
+             | (array[index + 2] & 0xFFL) << 16
+             | (array[index + 3] & 0xFFL) << 24
+             | (array[index + 4] & 0xFFL) << 32
+             | (array[index + 5] & 0xFFL) << 40
+             | (array[index + 6] & 0xFFL) << 48
+             | (array[index + 7] & 0xFFL) << 56;
+    }
+
+    /**
+     * Returns little-endian view of buffer for {@link #mismatch(ByteBuffer, int)}.<br>
+     * Buffer is duplicated only if it has another order, indices are not changed
+     *
+     * @param buffer data
+     * @return little-endian buffer
+     */
+    static ByteBuffer littleEndian(ByteBuffer buffer) {
+        return buffer.order() == ByteOrder.LITTLE_ENDIAN ? buffer : buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns index of the first significant byte of signature, which does not match data
+     *
+     * @param data array with at least <code>length()</code> bytes after <code>offset</code>
+     * @param offset index of data byte compared with the first byte of signature
+     * @return index of mismatching byte in signature or -1 if data matches
+     */
+    int mismatch(byte[] data, int offset) {
+        int i = 0;
+        for(int w = 0; w < words.length; w++, i += 8) {
+            long difference = (getLong(data, offset + i) & masks[w]) ^ words[w];
+            if(difference != 0) {
+                return i + (Long.numberOfTrailingZeros(difference) >>> 3);
+            }
+        }
+        for(; i < bytes.length; i++) {
+            if((data[offset + i] & mask[i]) != bytes[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns index of the first significant byte of signature, which does not match data
+     *
+     * @param data little-endian buffer with at least <code>length()</code> bytes after <code>offset</code>
+     * @param offset absolute index of data byte compared with the first byte of signature
+     * @return index of mismatching byte in signature or -1 if data matches
+     */
+    int mismatch(ByteBuffer data, int offset) {
+        int i = 0;
+        for(int w = 0; w < words.length; w++, i += 8) {
+            long difference = (data.getLong(offset + i) & masks[w]) ^ words[w];
+            if(difference != 0) {
+                return i + (Long.numberOfTrailingZeros(difference) >>> 3);
+            }
+        }
+        for(; i < bytes.length; i++) {
+            if((data.get(offset + i) & mask[i]) != bytes[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the same result as {@link #mismatch(byte[], int)} comparing byte by byte
+     *
+     * @param data array with at least <code>length()</code> bytes after <code>offset</code>
+     * @param offset index of data byte compared with the first byte of signature
+     * @return index of mismatching byte in signature or -1 if data matches
+     */
+    int mismatchScalar(byte[] data, int offset) {
+        for(int i = 0; i < bytes.length; i++) {
+            if((data[offset + i] & mask[i]) != bytes[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the same result as {@link #mismatch(ByteBuffer, int)} comparing byte by byte
+     *
+     * @param data buffer of any order with at least <code>length()</code> bytes after <code>offset</code>
+     * @param offset absolute index of data byte compared with the first byte of signature
+     * @return index of mismatching byte in signature or -1 if data matches
+     */
+    int mismatchScalar(ByteBuffer data, int offset) {
+        for(int i = 0; i < bytes.length; i++) {
+            if((data.get(offset + i) & mask[i]) != bytes[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static MethodHandle findLongView() {
+        try {
+            Class<?> varHandle = Class.forName("java.lang.invoke.VarHandle");
+            Class<?> accessMode = Class.forName("java.lang.invoke.VarHandle$AccessMode");
+            Object view = MethodHandles.class.getMethod("byteArrayViewVarHandle", Class.class, ByteOrder.class)
+                                             .invoke(null, long[].class, ByteOrder.LITTLE_ENDIAN);
+            Object get = accessMode.getMethod("valueOf", String.class).invoke(null, "GET");
+            MethodHandle handle = (MethodHandle)varHandle.getMethod("toMethodHandle", accessMode).invoke(view, get);
+            return handle.asType(MethodType.methodType(long.class, byte[].class, int.class));
+        } catch(ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns count of signature bytes
+     *
+     * @return count of bytes
+     */
+    int length() {
+        return bytes.length;
+    }
+}
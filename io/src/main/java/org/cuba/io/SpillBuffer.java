@@ -0,0 +1,161 @@
+package org.cuba.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only sequence of bytes with bounded heap usage
+ * <p>The newest bytes are kept in heap ring buffer. When ring is full, the<br>
+ *    oldest bytes are written to temporary file, which is created on first<br>
+ *    spill and deleted on {@link #close()}. Any byte of sequence can be read<br>
+ *    again by its position, from ring or from file</p>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+final class SpillBuffer implements Closeable {
+    private final byte[] ring;
+    private final Path directory;
+    private FileChannel file;
+    private int ringStart;
+    private int ringCount;
+    private long spilled;
+
+    /**
+     * Creates empty buffer
+     *
+     * @param memory capacity of heap ring buffer
+     * @param directory directory for temporary file or null to use default temporary directory
+     * @throws IllegalArgumentException if <code>memory</code> is less than 1
+     */
+    SpillBuffer(int memory, Path directory) {
+        if(memory < 1) {
+            throw new IllegalArgumentException("Memory must be greater than 0");
+        }
+
+        this.ring = new byte[memory];
+        this.directory = directory;
+    }
+
+    /**
+     * Returns count of stored bytes
+     *
+     * @return size of sequence
+     */
+    long size() {
+        return spilled + ringCount;
+    }
+
+    /**
+     * Returns count of bytes written to temporary file
+     *
+     * @return count of spilled bytes
+     */
+    long spilled() {
+        return spilled;
+    }
+
+    /**
+     * Appends bytes to the end of sequence
+     *
+     * @param array source array
+     * @param offset index of the first byte in array
+     * @param length count of bytes
+     * @throws IOException if an error occurred at writing temporary file
+     */
+    void append(byte[] array, int offset, int length) throws IOException {
+        while(length > 0) {
+            if(ringCount == ring.length) {
+                spill(Math.max(Math.min(length, ring.length), ring.length / 4));
+            }
+
+            int tail = (ringStart + ringCount) % ring.length;
+            int part = Math.min(length, Math.min(ring.length - ringCount, ring.length - tail));
+            System.arraycopy(array, offset, ring, tail, part);
+            ringCount += part;
+            offset += part;
+            length -= part;
+        }
+    }
+
+    /**
+     * Reads stored bytes starting at specified position of sequence
+     *
+     * @param position position of the first byte in sequence
+     * @param array destination array
+     * @param offset index of the first byte in array
+     * @param length max count of bytes
+     * @return count of read bytes, less than <code>length</code> only if end of sequence reached
+     * @throws IOException if an error occurred at reading temporary file
+     */
+    int read(long position, byte[] array, int offset, int length) throws IOException {
+        length = (int)Math.min(length, size() - position);
+        int read = 0;
+        if(position < spilled) {
+            ByteBuffer target = ByteBuffer.wrap(array, offset, (int)Math.min(length, spilled - position));
+            while(target.hasRemaining()) {
+                if(file.read(target, position + target.position() - offset) == -1) {
+                    throw new EOFException("Temporary file is truncated");
+                }
+            }
+            read = target.position() - offset;
+            position += read;
+        }
+        while(read < length) {
+            int index = (ringStart + (int)(position - spilled)) % ring.length;
+            int part = Math.min(length - read, ring.length - index);
+            System.arraycopy(ring, index, array, offset + read, part);
+            read += part;
+            position += part;
+        }
+        return read;
+    }
+
+    /**
+     * Removes all bytes. Temporary file is kept to be reused
+     */
+    void truncate() {
+        ringStart = 0;
+        ringCount = 0;
+        spilled = 0;
+    }
+
+    private void spill(int length) throws IOException {
+        if(file == null) {
+            Path path = directory == null ? Files.createTempFile("cuba", ".spill") : Files.createTempFile(directory, "cuba", ".spill");
+            file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        }
+
+        int written = 0;
+        while(written < length) {
+            int part = Math.min(length - written, ring.length - ringStart);
+            ByteBuffer source = ByteBuffer.wrap(ring, ringStart, part);
+            while(source.hasRemaining()) {
+                file.write(source, spilled + source.position() - ringStart);
+            }
+            ringStart = (ringStart + part) % ring.length;
+            ringCount -= part;
+            spilled += part;
+            written += part;
+        }
+    }
+
+    /**
+     * Closes and deletes temporary file
+     */
+    @Override
+    public void close() throws IOException {
+        truncate();
+        if(file != null) {
+            file.close();
+            file = null;
+        }
+    }
+}
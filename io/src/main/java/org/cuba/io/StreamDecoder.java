@@ -0,0 +1,28 @@
+package org.cuba.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Creates streaming decoder of compressed data for {@link DecodingPipeline}
+ * <pre>
+ *     pipeline.register("bz2", 65536, (input, bufferSize) -&gt; new BZip2CompressorInputStream(input));
+ * </pre>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+@FunctionalInterface
+public interface StreamDecoder {
+    /**
+     * Returns stream of decoded data. Decoder must read <code>input</code> lazily<br>
+     * and close it on closing of returned stream
+     *
+     * @param input stream of encoded data, positioned at the first byte of container
+     * @param bufferSize recommended size of decoder's input buffer
+     * @return stream of decoded data
+     * @throws IOException if header of container is damaged or an error occurred at reading
+     */
+    InputStream decode(InputStream input, int bufferSize) throws IOException;
+}
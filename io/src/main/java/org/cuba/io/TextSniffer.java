@@ -0,0 +1,300 @@
+package org.cuba.io;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Recognizes text data and its charset by byte order mark or by validation of UTF-8
+ * <p>Validation skips ASCII by 8 bytes at once: word without high bits and without<br>
+ *    control bytes is checked by two masks, other words are checked byte by byte.<br>
+ *    Incomplete UTF-8 sequence at the end of data is accepted, because data is<br>
+ *    usually a prefix of longer stream</p>
+ * <p>Data with byte order mark is text of the mark's charset. Data without mark is<br>
+ *    UTF-8 if it is valid UTF-8 without control bytes except tab, line feed, form feed,<br>
+ *    carriage return and escape, or ISO-8859-1 if it is not valid UTF-8 but has<br>
+ *    no such control bytes. Other data is binary</p>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+final class TextSniffer {
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long SPACES = 0x2020202020202020L;
+
+    /**
+     * Byte order marks, UTF-32LE precedes UTF-16LE, which is its prefix
+     */
+    private static final byte[][] MARKS = {
+        { (byte)0xEF, (byte)0xBB, (byte)0xBF },
+        { (byte)0xFF, (byte)0xFE, 0x00, 0x00 },
+        { 0x00, 0x00, (byte)0xFE, (byte)0xFF },
+        { (byte)0xFF, (byte)0xFE },
+        { (byte)0xFE, (byte)0xFF }
+    };
+    private static final String[] MARK_CHARSETS = { "UTF-8", "UTF-32LE", "UTF-32BE", "UTF-16LE", "UTF-16BE" };
+
+    private TextSniffer() {
+
+    }
+
+    /**
+     * Returns length of byte order mark at the beginning of data
+     *
+     * @param array data
+     * @param offset index of the first byte of data
+     * @param length count of bytes of data
+     * @return length of mark or 0 if data has no mark
+     */
+    static int markLength(byte[] array, int offset, int length) {
+        int mark = mark(array, offset, length);
+        return mark < 0 ? 0 : MARKS[mark].length;
+    }
+
+    /**
+     * Returns charset of text data or null if data is binary
+     *
+     * @param array data
+     * @param offset index of the first byte of data
+     * @param length count of bytes of data
+     * @return charset of data or null
+     */
+    static Charset charset(byte[] array, int offset, int length) {
+        int mark = mark(array, offset, length);
+        if(mark >= 0) {
+            return Charset.forName(MARK_CHARSETS[mark]);
+        }
+        if(length == 0) {
+            return null;
+        }
+
+        int invalid = validateUtf8(array, offset, length);
+        if(invalid < 0) {
+            return StandardCharsets.UTF_8;
+        }
+        for(int i = offset + invalid, end = offset + length; i < end; i++) {
+            if(isControl(array[i])) {
+                return null;
+            }
+        }
+        return StandardCharsets.ISO_8859_1;
+    }
+
+    /**
+     * Returns extension of text format, recognized by the first significant characters:<br>
+     * "xml", "html", "json", "csv" or "txt"
+     *
+     * @param text decoded text without byte order mark
+     * @return extension of text format
+     */
+    static String format(CharSequence text) {
+        int start = 0;
+        while(start < text.length() && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        if(start == text.length()) {
+            return "txt";
+        }
+
+        char first = text.charAt(start);
+        if(first == '<') {
+            if(startsWithIgnoreCase(text, start, "<!doctype html") || startsWithIgnoreCase(text, start, "<html")) {
+                return "html";
+            }
+            if(start + 1 < text.length()) {
+                char next = text.charAt(start + 1);
+                if(next == '?' || next == '!' || Character.isLetter(next)) {
+                    return "xml";
+                }
+            }
+        }
+        if(first == '{' || first == '[') {
+            return "json";
+        }
+        return isDelimited(text) ? "csv" : "txt";
+    }
+
+    /**
+     * Returns view of single-byte data as characters without copying. UTF-8 data<br>
+     * may be viewed this way too, because markers of text formats are ASCII
+     *
+     * @param array data
+     * @param offset index of the first byte of data
+     * @param length count of bytes of data
+     * @return characters of data
+     */
+    static CharSequence latin1(byte[] array, int offset, int length) {
+        return new Latin1(array, offset, length);
+    }
+
+    /**
+     * Returns index of the first byte, which is not part of valid UTF-8 text,<br>
+     * relative to <code>offset</code>, or -1 if all bytes are valid
+     */
+    static int validateUtf8(byte[] array, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while(i < end) {
+            if(i + 8 <= end) {
+                long word = SignatureMatcher.getLong(array, i);
+                if(((word | (word - SPACES) & ~word) & HIGH_BITS) == 0) {
+                    i += 8;
+                    continue;
+                }
+            }
+
+            int b = array[i] & 0xFF;
+            if(b < 0x80) {
+                if(isControl((byte)b)) {
+                    return i - offset;
+                }
+                i++;
+                continue;
+            }
+
+            int count;
+            int min = 0x80, max = 0xBF;
+            if(b >= 0xC2 && b <= 0xDF) {
+                count = 1;
+            } else if(b >= 0xE0 && b <= 0xEF) {
+                count = 2;
+                if(b == 0xE0) {
+                    min = 0xA0;
+                } else if(b == 0xED) {
+                    max = 0x9F;
+                }
+            } else if(b >= 0xF0 && b <= 0xF4) {
+                count = 3;
+                if(b == 0xF0) {
+                    min = 0x90;
+                } else if(b == 0xF4) {
+                    max = 0x8F;
+                }
+            } else {
+                return i - offset;
+            }
+
+            for(int k = 1; k <= count; k++) {
+                if(i + k == end) {
+                    return -1;
+                }
+                int next = array[i + k] & 0xFF;
+                if(k == 1 ? next < min || next > max : next < 0x80 || next > 0xBF) {
+                    return i - offset;
+                }
+            }
+            i += count + 1;
+        }
+        return -1;
+    }
+
+    private static boolean isControl(byte b) {
+        return b >= 0 && b < 0x20 && b != '\t' && b != '\n' && b != '\f' && b != '\r' && b != 0x1B;
+    }
+
+    private static int mark(byte[] array, int offset, int length) {
+        for(int m = 0; m < MARKS.length; m++) {
+            byte[] mark = MARKS[m];
+            if(mark.length > length) {
+                continue;
+            }
+            int i = 0;
+            while(i < mark.length && array[offset + i] == mark[i]) {
+                i++;
+            }
+            if(i == mark.length) {
+                return m;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWithIgnoreCase(CharSequence text, int start, String prefix) {
+        if(text.length() - start < prefix.length()) {
+            return false;
+        }
+        for(int i = 0; i < prefix.length(); i++) {
+            if(Character.toLowerCase(text.charAt(start + i)) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the first line has commas, semicolons or tabs and the second<br>
+     * complete line has the same count of the same delimiter
+     */
+    private static boolean isDelimited(CharSequence text) {
+        int firstEnd = indexOf(text, '\n', 0);
+        if(firstEnd < 0) {
+            return false;
+        }
+        int secondEnd = indexOf(text, '\n', firstEnd + 1);
+        if(secondEnd < 0) {
+            secondEnd = text.length();
+        }
+
+        for(char delimiter : new char[] { ',', ';', '\t' }) {
+            int count = count(text, delimiter, 0, firstEnd);
+            if(count > 0 && count == count(text, delimiter, firstEnd + 1, secondEnd)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOf(CharSequence text, char c, int from) {
+        for(int i = from; i < text.length(); i++) {
+            if(text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int count(CharSequence text, char c, int from, int to) {
+        int count = 0;
+        for(int i = from; i < to; i++) {
+            if(text.charAt(i) == c) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Characters of bytes in ISO-8859-1
+     */
+    private static final class Latin1 implements CharSequence {
+        private final byte[] array;
+        private final int offset;
+        private final int length;
+
+        private Latin1(byte[] array, int offset, int length) {
+            this.array = array;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char)(array[offset + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new Latin1(array, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(array, offset, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
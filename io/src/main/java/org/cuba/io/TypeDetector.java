@@ -4,62 +4,79 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
-import java.lang.reflect.Type;
 import java.net.FileNameMap;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 
-import org.cuba.reflex.ParameterizedType;
-
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
+import org.cuba.io.utils.ExecutorUtils;
+import org.cuba.io.utils.SharedBufferPool;
 
 /**
  * Detects mime-type of data or extension for file on the<br>
  * base of data signature - first few bytes. Typically to detect<br>
  * the type enough 4-6 bytes
- * <p>Count of supported file types: 337</p>
+ * <p>Supported file types are listed by {@link #getKnownTypes()}</p>
+ * <p>Known signatures can be changed at runtime by registry methods, such as<br>
+ * {@link #register(String, Signature...)} and {@link #reload(Reader)}</p>
+ * <p>Text formats have no signatures, so {@link #classify(byte[], int, int)} also<br>
+ * recognizes text and its charset from the same header</p>
  *  
  * @author Kirill Bogatikov
  * @version 1.0
  */
 public class TypeDetector {
-    protected static ConcurrentHashMap<String, List<List<Byte>>> knownTypes;
+    /**
+     * Count of bytes examined by text classification, see {@link #classify(byte[], int, int)}
+     */
+    public static final int TEXT_PREFIX_LENGTH = 4096;
+    /**
+     * Shorter signatures, e. g. "MZ" or "BM", are often found at the beginning<br>
+     * of plain text, so valid text wins over them
+     */
+    private static final int MIN_TEXT_SIGNATURE = 4;
+    /**
+     * Snapshot of known signatures, replaced on every change of registry
+     * 
+     * @deprecated changes of this field are not visible to detectors, use {@link #getKnownTypes()}
+     *             and registry methods, such as {@link #register(String, Signature...)}
+     */
+    @Deprecated
+    protected static volatile Map<String, List<Signature>> knownTypes;
     protected static FileNameMap fileNameMap;
+    private static volatile SignatureIndex index;
+    private static Map<String, List<Signature>> builtInTypes;
+    private static final Object registryLock = new Object();
+    private volatile DetectionCache cache;
+    private volatile ExecutorService executor;
+    private volatile DetectionMetrics metrics;
     
     static {
-        knownTypes = new ConcurrentHashMap<>();
+        builtInTypes = Collections.emptyMap();
         fileNameMap = URLConnection.getFileNameMap();
         
-        try(InputStream stream = TypeDetector.class.getClassLoader().getResourceAsStream("known_types.json");
-            Reader reader = new InputStreamReader(stream)) {
-           
-            GsonBuilder builder = new GsonBuilder();
-            builder.setLenient();
-            builder.registerTypeAdapter(Byte.class, new JsonDeserializer<Byte>() {
-                @Override
-                public Byte deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-                    return Integer.valueOf(json.getAsString().replace("0x", ""), 16).byteValue();
-                }
-            });
-            Gson gson = builder.create();
-            
-            Type signatureType = new ParameterizedType(null, List.class, Byte.class);
-            Type signaturesListType = new ParameterizedType(null, List.class, signatureType);
-            Type hashMapType = new ParameterizedType(null, ConcurrentHashMap.class, String.class, signaturesListType);
-                       
-            knownTypes = gson.fromJson(reader, hashMapType);
+        try {
+            builtInTypes = SignatureLoader.load();
         } catch(IOException ioe) {
-            System.err.println("Cannot load known_types.json. Caused by ");
+            System.err.println("Cannot load known types. Caused by ");
             ioe.printStackTrace();
         }
+        publish(builtInTypes);
     }
     
     /**
@@ -69,38 +86,235 @@ public class TypeDetector {
         
     }
     
+    /**
+     * Returns all known signatures
+     * <p>Returned map is immutable snapshot: later changes of registry<br>
+     * do not affect it</p>
+     * 
+     * @return map of extensions and their signatures in order of registration,<br>
+     *         built-in ones are in legacy hash order of parsed JSON
+     */
+    public static Map<String, List<Signature>> getKnownTypes() {
+        return index.types();
+    }
+    
+    /**
+     * Adds signatures of specified extension to registry
+     * <p>If extension is already known, signatures are appended to its signatures,<br>
+     * otherwise extension is added after all known extensions. So new signatures<br>
+     * win over older ones with the same weight of match</p>
+     * <p>Registry is copy-on-write: new index is compiled and published by one<br>
+     * volatile write, so concurrent detections never block and never see<br>
+     * partially updated signatures. Writers are serialized</p>
+     * 
+     * @param extension file extension, e. g. "dat"
+     * @param signatures signatures of extension
+     * @throws NullPointerException if <code>extension</code>, <code>signatures</code> or one of signatures is null
+     * @throws IllegalArgumentException if <code>extension</code> is empty or <code>signatures</code> is empty
+     */
+    public static void register(String extension, Signature... signatures) {
+        checkExtension(extension);
+        if(signatures == null) {
+            throw new NullPointerException("Signatures is null");
+        }
+        if(signatures.length == 0) {
+            throw new IllegalArgumentException("Signatures is empty");
+        }
+        for(Signature signature : signatures) {
+            if(signature == null) {
+                throw new NullPointerException("Signature is null");
+            }
+        }
+        
+        synchronized(registryLock) {
+            Map<String, List<Signature>> types = new LinkedHashMap<>(index.types());
+            List<Signature> list = new ArrayList<>();
+            if(types.containsKey(extension)) {
+                list.addAll(types.get(extension));
+            }
+            list.addAll(Arrays.asList(signatures));
+            types.put(extension, Collections.unmodifiableList(list));
+            publish(types);
+        }
+    }
+    
+    /**
+     * Removes all signatures of specified extension from registry
+     * 
+     * @see #register(String, Signature...)
+     * 
+     * @param extension file extension
+     * @return true if extension was known
+     * @throws NullPointerException if <code>extension</code> is null
+     * @throws IllegalArgumentException if <code>extension</code> is empty
+     */
+    public static boolean unregister(String extension) {
+        checkExtension(extension);
+        
+        synchronized(registryLock) {
+            if(!index.types().containsKey(extension)) {
+                return false;
+            }
+            Map<String, List<Signature>> types = new LinkedHashMap<>(index.types());
+            types.remove(extension);
+            publish(types);
+            return true;
+        }
+    }
+    
+    /**
+     * Adds signatures described in JSON format of known_types.json to registry
+     * <p>Every extension from JSON replaces signatures of the same known extension<br>
+     * or is added after all known extensions. So registering the same config twice<br>
+     * leaves registry unchanged</p>
+     * <p>New extensions are added in hash order of parsed JSON, not in order of file,<br>
+     * like built-in ones. Use {@link #register(String, Signature...)} for every extension<br>
+     * if exact order of ties matters</p>
+     * 
+     * @see #register(String, Signature...)
+     * 
+     * @param json source of JSON, will not be closed
+     * @throws IOException if an error occured at reading or JSON is malformed
+     */
+    public static void register(Reader json) throws IOException {
+        Map<String, List<Signature>> config = SignatureLoader.readJson(json);
+        
+        synchronized(registryLock) {
+            Map<String, List<Signature>> types = new LinkedHashMap<>(index.types());
+            types.putAll(config);
+            publish(types);
+        }
+    }
+    
+    /**
+     * Replaces all registered signatures with built-in signatures and signatures<br>
+     * described in JSON format. Detections see either old or new signatures, never a mix
+     * 
+     * @see #register(Reader)
+     * 
+     * @param json source of JSON, will not be closed
+     * @throws IOException if an error occured at reading or JSON is malformed
+     */
+    public static void reload(Reader json) throws IOException {
+        Map<String, List<Signature>> config = SignatureLoader.readJson(json);
+        
+        synchronized(registryLock) {
+            Map<String, List<Signature>> types = new LinkedHashMap<>(builtInTypes);
+            types.putAll(config);
+            publish(types);
+        }
+    }
+    
+    /**
+     * Removes all registered signatures and restores built-in ones
+     */
+    public static void reset() {
+        synchronized(registryLock) {
+            publish(builtInTypes);
+        }
+    }
+    
+    /**
+     * Returns version of signatures, changed on every change of registry
+     * 
+     * @return version of signatures
+     */
+    static long signaturesVersion() {
+        return index.version();
+    }
+    
+    private static void publish(Map<String, List<Signature>> types) {
+        SignatureIndex next = new SignatureIndex(Collections.unmodifiableMap(types));
+        index = next;
+        knownTypes = next.types();
+    }
+    
+    private static void checkExtension(String extension) {
+        if(extension == null) {
+            throw new NullPointerException("Extension is null");
+        }
+        if(extension.isEmpty()) {
+            throw new IllegalArgumentException("Extension is empty");
+        }
+    }
+    
+    /**
+     * Sets cache of detected types for files. Cache is used by methods,<br>
+     * which accept {@link File} or {@link Path}, and can be shared between detectors
+     * 
+     * @param cache cache of detected types or null to disable caching
+     */
+    public void setCache(DetectionCache cache) {
+        this.cache = cache;
+    }
+    
+    /**
+     * Returns cache of detected types for files or null if caching is disabled
+     * 
+     * @return cache of detected types or null
+     */
+    public DetectionCache getCache() {
+        return cache;
+    }
+    
+    /**
+     * Sets executor for asynchronous detection methods, such as {@link #extensionAsync(Path)}.<br>
+     * It runs header reads of {@link AsynchronousFileChannel} and completion of futures.<br>
+     * Executor returned by {@link ExecutorUtils#newVirtualThreadExecutor(String)} runs them<br>
+     * on virtual threads where runtime supports it
+     * 
+     * @param executor executor for asynchronous detection or null to use default thread pool of channels
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+    
+    /**
+     * Returns executor for asynchronous detection methods or null if default thread pool is used
+     * 
+     * @return executor or null
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+    
+    /**
+     * Sets metrics, which record matched types, examined bytes and time spent in<br>
+     * matching and in reading of headers. Metrics can be shared between detectors
+     * 
+     * @param metrics metrics of detection or null to disable instrumentation
+     */
+    public void setMetrics(DetectionMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Returns metrics of detection or null if instrumentation is disabled
+     * 
+     * @return metrics or null
+     */
+    public DetectionMetrics getMetrics() {
+        return metrics;
+    }
+    
     /**
      * Returns length of the shortest signature
+     * <p>Value is computed once, when signatures are compiled</p>
      * 
      * @return length of the shortest signature
      */
     public int minSignatureLength() {
-        int min = Integer.MAX_VALUE;
-        for(String extension : knownTypes.keySet()) {
-            for(List<Byte> signature : knownTypes.get(extension)) {
-                if(signature.size() < min) {
-                    min = signature.size();
-                }
-            }
-        }
-        return min;
+        return index.minLength();
     }
 
     /**
      * Returns length of the longest signature
+     * <p>Value is computed once, when signatures are compiled</p>
      * 
      * @return length of the longest signature
      */
     public int maxSignatureLength() {
-        int max = -Integer.MAX_VALUE;
-        for(String extension : knownTypes.keySet()) {
-            for(List<Byte> signature : knownTypes.get(extension)) {
-                if(signature.size() > max) {
-                    max = signature.size();
-                }
-            }
-        }
-        return max;
+        return index.maxLength();
     }
     
     /**
@@ -128,7 +342,7 @@ public class TypeDetector {
      * @return MIME-type for data or null
      */
     public String mimeType(byte[] array) {
-        return mimeType(extension(array));
+        return mimeTypeOf(extension(array));
     }
     
     /**
@@ -145,7 +359,7 @@ public class TypeDetector {
      * @throws IOException thrown if some error occured at reading
      */
     public String mimeType(ForthBackInputStream stream) throws IOException {
-        return mimeType(extension(stream));
+        return mimeTypeOf(extension(stream));
     }
     
     /**
@@ -162,12 +376,29 @@ public class TypeDetector {
      * @throws IOException thrown if some error occured at reading
      */
     public String mimeType(File file) throws IOException {
-        return mimeType(extension(file));
+        return mimeTypeOf(extension(file));
+    }
+    
+    /**
+     * Returns MIME-type for data stored in specified file<br>
+     * Returns null if MIME-type is unknown
+     * 
+     * @see TypeDetector#extension(Path)
+     * @see TypeDetector#mimeType(String)
+     * 
+     * @param path specified file, must be exists and readable
+     * @return MIME-type for data or null
+     * @throws IOException thrown if some error occured at reading
+     */
+    public String mimeType(Path path) throws IOException {
+        return mimeTypeOf(extension(path));
     }
     
     /**
      * Returns file extension for data from specified byte array<br>
      * or null if type is unknown, e. g. "mp3" for [0x49, 0x44, 0x33, ...]
+     * <p>Signatures are compiled into {@link SignatureIndex} once at class initialization,<br>
+     * so this method costs O(longest match) and does not allocate memory</p>
      * 
      * @param array specified bytes array
      * @return file extension for data or null
@@ -177,19 +408,89 @@ public class TypeDetector {
             throw new NullPointerException("Byte array is null");
         }
         
-        int lastMatchLength = 0;
-        String lastMatchExtension = null;
-        for(String extension : knownTypes.keySet()) {
-            for(List<Byte> signature : knownTypes.get(extension)) {
-                int length = matchLength(signature, array);
-                if(length >= lastMatchLength) {
-                    lastMatchLength = length;
-                    lastMatchExtension = extension;
-                }
-            }
+        return match(array, 0, array.length);
+    }
+    
+    /**
+     * Returns file extension for data from specified part of byte array<br>
+     * or null if type is unknown
+     * <p>Only <code>length</code> bytes starting at <code>offset</code> are matched,<br>
+     * so one array can be reused as header buffer for many detections</p>
+     * 
+     * @see #extension(byte[])
+     * 
+     * @param array specified bytes array
+     * @param offset index of the first byte of data
+     * @param length count of bytes of data
+     * @return file extension for data or null
+     * @throws IndexOutOfBoundsException if <code>offset</code> or <code>length</code> is out of array bounds
+     */
+    public String extension(byte[] array, int offset, int length) {
+        if(array == null) {
+            throw new NullPointerException("Byte array is null");
+        }
+        if(offset < 0 || length < 0 || length > array.length - offset) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + length + ") out of bounds for length " + array.length);
         }
         
-        return lastMatchExtension;
+        return match(array, offset, length);
+    }
+    
+    /**
+     * Returns all types matching data from specified byte array
+     * 
+     * @see #detect(byte[], int, int, int)
+     * 
+     * @param array specified bytes array
+     * @return list of candidates sorted from the best, may be empty
+     */
+    public List<Candidate> detect(byte[] array) {
+        if(array == null) {
+            throw new NullPointerException("Byte array is null");
+        }
+        
+        return detect(array, 0, array.length, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Returns up to <code>limit</code> best types matching data from specified part of byte array
+     * <p>All candidates are found in one pass over compiled signatures. Every extension<br>
+     * appears once, with its longest match. Candidates are sorted by confidence, then by<br>
+     * match length and by order of registration of signatures, so result is deterministic.<br>
+     * Extension {@link #extension(byte[], int, int)} returns is among candidates, but not<br>
+     * always the first one: complete match of shorter signature is more confident than<br>
+     * partial match of longer signature with the same prefix, e. g. "xml" than "msc".<br>
+     * Extensions which do not match any byte are not included, so for unknown data,<br>
+     * when extension is null, list is empty</p>
+     * 
+     * @param array specified bytes array
+     * @param offset index of the first byte of data
+     * @param length count of bytes of data
+     * @param limit max count of candidates
+     * @return list of candidates sorted from the best, may be empty
+     * @throws IndexOutOfBoundsException if <code>offset</code> or <code>length</code> is out of array bounds
+     * @throws IllegalArgumentException if <code>limit</code> is less than 1
+     */
+    public List<Candidate> detect(byte[] array, int offset, int length, int limit) {
+        if(array == null) {
+            throw new NullPointerException("Byte array is null");
+        }
+        if(offset < 0 || length < 0 || length > array.length - offset) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + length + ") out of bounds for length " + array.length);
+        }
+        if(limit < 1) {
+            throw new IllegalArgumentException("Limit must be greater than 0");
+        }
+        
+        DetectionMetrics metrics = this.metrics;
+        if(metrics == null) {
+            return index.candidates(array, offset, length, limit);
+        }
+        
+        long start = System.nanoTime();
+        List<Candidate> candidates = index.candidates(array, offset, length, limit);
+        metrics.recordMatch(candidates.isEmpty() ? null : candidates.get(0).getExtension(), length, System.nanoTime() - start);
+        return candidates;
     }
     
     /**
@@ -201,14 +502,37 @@ public class TypeDetector {
      * @throws IOException if an error occured at reading data 
      */
     public String extension(ForthBackInputStream stream) throws IOException {
-        int max = maxSignatureLength();
-        stream.mark(max);
-        
-        byte[] array = new byte[max];
-        stream.read(array);
-        stream.reset();
+        SharedBufferPool pool = SharedBufferPool.getDefault();
+        byte[] header = pool.acquire(headerLength());
+        try {
+            return extension(stream, header);
+        } finally {
+            pool.release(header);
+        }
+    }
+    
+    /**
+     * Returns file extension for data from specified {@link ForthBackInputStream} stream<br>
+     * or null if type is unknown. Header is peeked into caller-supplied buffer, so position<br>
+     * and mark of stream are kept
+     * <p>No more than {@link #maxSignatureLength()} bytes are read, even if <code>header</code><br>
+     * is longer. Shorter buffer reduces accuracy of detection</p>
+     * 
+     * @param stream specified stream
+     * @param header reusable buffer for header bytes
+     * @return file extension for data or null if it unknown
+     * @throws IOException if an error occured at reading data 
+     */
+    public String extension(ForthBackInputStream stream, byte[] header) throws IOException {
+        int length = Math.min(header.length, headerLength());
+        DetectionMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        int read = Math.max(stream.peek(0, header, 0, length), 0);
+        if(metrics != null) {
+            metrics.recordRead(System.nanoTime() - start);
+        }
         
-        return extension(array);
+        return extension(header, 0, read);
     }
     
     /**
@@ -220,32 +544,552 @@ public class TypeDetector {
      * @throws IOException if an error occured at reading data 
      */
     public String extension(File file) throws IOException {
+        return extension(file.toPath());
+    }
+    
+    /**
+     * Returns file extension for data from specified file<br>
+     * or null if type is unknown. Header is read into caller-supplied buffer,<br>
+     * so a loop over many files does not allocate header arrays
+     * <p>No more than {@link #maxSignatureLength()} bytes are read, even if <code>header</code><br>
+     * is longer. Shorter buffer reduces accuracy of detection</p>
+     * 
+     * @param file specified file, must be exists and readable
+     * @param header reusable buffer for header bytes
+     * @return file extension for data or null if it unknown
+     * @throws IOException if an error occured at reading data 
+     */
+    public String extension(File file, byte[] header) throws IOException {
+        DetectionMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        int read;
         try(FileInputStream stream = new FileInputStream(file)) {
-            int max = maxSignatureLength();
-            
-            byte[] array = new byte[max];
-            stream.read(array);
-            
-            return extension(array);
+            read = readHeader(stream, header, Math.min(header.length, headerLength()));
+        }
+        if(metrics != null) {
+            metrics.recordRead(System.nanoTime() - start);
+        }
+        return extension(header, 0, read);
+    }
+    
+    /**
+     * Returns file extension for data from remaining bytes of specified buffer<br>
+     * or null if type is unknown
+     * <p>Buffer is matched in place: direct buffers are not copied to heap and<br>
+     * position of buffer is not changed</p>
+     * 
+     * @param buffer specified buffer
+     * @return file extension for data or null
+     */
+    public String extension(ByteBuffer buffer) {
+        if(buffer == null) {
+            throw new NullPointerException("Buffer is null");
+        }
+        
+        DetectionMetrics metrics = this.metrics;
+        if(metrics == null) {
+            return index.longestMatch(buffer);
+        }
+        
+        long start = System.nanoTime();
+        String extension = index.longestMatch(buffer);
+        metrics.recordMatch(extension, buffer.remaining(), System.nanoTime() - start);
+        return extension;
+    }
+    
+    /**
+     * Returns file extension for data from specified file<br>
+     * or null if type is unknown
+     * <p>Header is read by positional {@link FileChannel} reads into direct buffer,<br>
+     * leased from {@link SharedBufferPool#getDefault()}. If {@link DetectionCache} is set, file is read only<br>
+     * when it is not cached yet or its size or modification time changed</p>
+     * 
+     * @param path specified file, must be exists and readable
+     * @return file extension for data or null if it unknown
+     * @throws IOException if an error occured at reading data 
+     */
+    public String extension(Path path) throws IOException {
+        DetectionCache cache = this.cache;
+        if(cache != null) {
+            return cache.extension(path, this);
+        }
+        return detect(path);
+    }
+    
+    /**
+     * Returns file extension for data from specified file<br>
+     * or null if type is unknown. Header is read into caller-supplied buffer
+     * 
+     * @see #extension(FileChannel, ByteBuffer)
+     * 
+     * @param path specified file, must be exists and readable
+     * @param header reusable heap or direct buffer for header bytes
+     * @return file extension for data or null if it unknown
+     * @throws IOException if an error occured at reading data 
+     */
+    public String extension(Path path, ByteBuffer header) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return extension(channel, header);
+        }
+    }
+    
+    /**
+     * Returns file extension for data from the beginning of specified channel<br>
+     * or null if type is unknown
+     * <p>Header is read by positional reads into direct buffer, leased from<br>
+     * {@link SharedBufferPool#getDefault()}. Position of channel is not changed</p>
+     * 
+     * @param channel specified channel, must be readable
+     * @return file extension for data or null if it unknown
+     * @throws IOException if an error occured at reading data 
+     */
+    public String extension(FileChannel channel) throws IOException {
+        SharedBufferPool pool = SharedBufferPool.getDefault();
+        ByteBuffer header = pool.acquireDirect(headerLength());
+        try {
+            return extension(channel, header);
+        } finally {
+            pool.releaseDirect(header);
+        }
+    }
+    
+    /**
+     * Returns file extension for data from the beginning of specified channel<br>
+     * or null if type is unknown. Header is read into caller-supplied buffer
+     * <p>Channel is read by positional reads until buffer is full or EOF reached,<br>
+     * position of channel is not changed. No more than {@link #maxSignatureLength()}<br>
+     * bytes are read. After detection <code>header</code> contains read bytes<br>
+     * between its position and limit</p>
+     * 
+     * @param channel specified channel, must be readable
+     * @param header reusable heap or direct buffer for header bytes
+     * @return file extension for data or null if it unknown
+     * @throws IOException if an error occured at reading data 
+     */
+    public String extension(FileChannel channel, ByteBuffer header) throws IOException {
+        if(channel == null) {
+            throw new NullPointerException("Channel is null");
+        }
+        if(header == null) {
+            throw new NullPointerException("Buffer is null");
+        }
+        
+        DetectionMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        header.clear();
+        header.limit(Math.min(header.capacity(), headerLength()));
+        
+        long position = 0;
+        int count;
+        while(header.hasRemaining() && (count = channel.read(header, position)) != -1) {
+            position += count;
+        }
+        header.flip();
+        if(metrics != null) {
+            metrics.recordRead(System.nanoTime() - start);
+        }
+        
+        return extension(header);
+    }
+    
+    /**
+     * Classifies data of array: detects type by signatures and recognizes text with its charset
+     * 
+     * @see #classify(byte[], int, int)
+     * 
+     * @param array data
+     * @return type and charset of data
+     */
+    public Detection classify(byte[] array) {
+        return classify(array, 0, array.length);
+    }
+    
+    /**
+     * Classifies data of array: detects type by signatures and recognizes text with its charset
+     * <p>No more than {@link #TEXT_PREFIX_LENGTH} bytes are examined. Text is recognized<br>
+     * by byte order mark or by validation of UTF-8. Type of text without signature is<br>
+     * recognized by its first characters: "xml", "html", "json", "csv" or "txt".<br>
+     * Signatures matching only byte order mark or shorter than 4 bytes lose to valid text</p>
+     * 
+     * @param array data
+     * @param offset index of the first byte of data
+     * @param length count of bytes of data
+     * @return type and charset of data
+     */
+    public Detection classify(byte[] array, int offset, int length) {
+        if(array == null) {
+            throw new NullPointerException("Array is null");
+        }
+        if(offset < 0 || length < 0 || length > array.length - offset) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + length + ") out of bounds for length " + array.length);
+        }
+        
+        DetectionMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        length = Math.min(length, Math.max(TEXT_PREFIX_LENGTH, headerLength()));
+        Charset charset = TextSniffer.charset(array, offset, length);
+        int markLength = charset == null ? 0 : TextSniffer.markLength(array, offset, length);
+        
+        String extension = null;
+        if(length > 0) {
+            List<Candidate> candidates = index.candidates(array, offset, Math.min(length, headerLength()), 1);
+            if(!candidates.isEmpty()) {
+                Candidate best = candidates.get(0);
+                if(charset == null || best.getMatchLength() > markLength && best.getMatchLength() >= MIN_TEXT_SIGNATURE) {
+                    extension = best.getExtension();
+                }
+            }
+        }
+        if(extension == null && charset != null) {
+            CharSequence text;
+            if(markLength == 0) {
+                text = TextSniffer.latin1(array, offset, length);
+            } else {
+                text = new String(array, offset + markLength, length - markLength, charset);
+            }
+            extension = TextSniffer.format(text);
+        }
+        if(metrics != null) {
+            metrics.recordMatch(extension, length, System.nanoTime() - start);
+        }
+        return new Detection(extension, charset, markLength);
+    }
+    
+    /**
+     * Classifies data of stream. Stream is not consumed: prefix of data is peeked
+     * 
+     * @see #classify(byte[], int, int)
+     * 
+     * @param stream specified stream
+     * @return type and charset of data
+     * @throws IOException if an error occured at reading data 
+     */
+    public Detection classify(ForthBackInputStream stream) throws IOException {
+        int length = Math.max(TEXT_PREFIX_LENGTH, headerLength());
+        SharedBufferPool pool = SharedBufferPool.getDefault();
+        byte[] header = pool.acquire(length);
+        try {
+            DetectionMetrics metrics = this.metrics;
+            long start = metrics == null ? 0 : System.nanoTime();
+            int read = Math.max(stream.peek(0, header, 0, length), 0);
+            if(metrics != null) {
+                metrics.recordRead(System.nanoTime() - start);
+            }
+            return classify(header, 0, read);
+        } finally {
+            pool.release(header);
+        }
+    }
+    
+    /**
+     * Classifies data of file. Only prefix of file is read
+     * 
+     * @see #classify(byte[], int, int)
+     * 
+     * @param path specified file, must be exists and readable
+     * @return type and charset of data
+     * @throws IOException if an error occured at reading data 
+     */
+    public Detection classify(Path path) throws IOException {
+        int length = Math.max(TEXT_PREFIX_LENGTH, headerLength());
+        SharedBufferPool pool = SharedBufferPool.getDefault();
+        byte[] header = pool.acquire(length);
+        try {
+            DetectionMetrics metrics = this.metrics;
+            long start = metrics == null ? 0 : System.nanoTime();
+            long position = 0;
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.wrap(header, 0, length);
+                int count;
+                while(buffer.hasRemaining() && (count = channel.read(buffer, position)) != -1) {
+                    position += count;
+                }
+            }
+            if(metrics != null) {
+                metrics.recordRead(System.nanoTime() - start);
+            }
+            return classify(header, 0, (int)position);
+        } finally {
+            pool.release(header);
         }
     }
     
     /**
-     * Returns count of bytes matching the value in two arrays<br>
-     * The comparison is made to the end of the shortest of the<br>
-     * two arrays using the method {@link Byte#compare(byte, byte)}
+     * Returns future of file extension for data from specified file
+     * <p>Header is read by {@link AsynchronousFileChannel}, so calling thread is<br>
+     * not blocked by disk or network I/O. Future completes with null if type is unknown<br>
+     * or exceptionally with {@link IOException} if file can not be read or with<br>
+     * {@link java.util.concurrent.RejectedExecutionException} if executor is shut down.<br>
+     * {@link DetectionCache} is not used by this method</p>
+     * 
+     * @see #setExecutor(ExecutorService)
      * 
-     * @param a first byte array
-     * @param b second byte array
-     * @return count of bytes matching the value
+     * @param path specified file, must be exists and readable
+     * @return future of file extension
+     */
+    public CompletableFuture<String> extensionAsync(Path path) {
+        if(path == null) {
+            throw new NullPointerException("Path is null");
+        }
+        
+        CompletableFuture<String> future = new CompletableFuture<>();
+        ExecutorService executor = this.executor;
+        AsynchronousFileChannel channel;
+        try {
+            if(executor == null) {
+                channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+            } else {
+                channel = AsynchronousFileChannel.open(path, Collections.singleton(StandardOpenOption.READ), executor);
+            }
+        } catch(IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        
+        ByteBuffer header = SharedBufferPool.getDefault().acquireDirect(headerLength());
+        HeaderReader reader = new HeaderReader(channel, future);
+        try {
+            channel.read(header, 0, header, reader);
+        } catch(RuntimeException re) {
+            reader.failed(re, header);
+        }
+        return future;
+    }
+    
+    /**
+     * Returns future of MIME-type for data stored in specified file
+     * 
+     * @see #extensionAsync(Path)
+     * @see #mimeType(String)
+     * 
+     * @param path specified file, must be exists and readable
+     * @return future of MIME-type, completed with null if MIME-type is unknown
+     */
+    public CompletableFuture<String> mimeTypeAsync(Path path) {
+        return extensionAsync(path).thenApply(extension -> extension == null ? null : mimeType(extension));
+    }
+    
+    /**
+     * Detects type of file without cache
+     * 
+     * @param path specified file
+     * @return file extension for data or null if it unknown
+     * @throws IOException if an error occured at reading data
      */
-    private int matchLength(List<Byte> a, byte[] b) {
-        int length = Math.min(a.size(), b.length);
-        for(int i = 0; i < length; i++) {
-            if(Byte.compare(a.get(i), b[i]) != 0) {
-                return i;
+    String detect(Path path) throws IOException {
+        SharedBufferPool pool = SharedBufferPool.getDefault();
+        ByteBuffer header = pool.acquireDirect(headerLength());
+        try {
+            return extension(path, header);
+        } finally {
+            pool.releaseDirect(header);
+        }
+    }
+    
+    /**
+     * Returns MIME-type for detected extension or null if extension is unknown
+     */
+    private String mimeTypeOf(String extension) {
+        return extension == null ? null : mimeType(extension);
+    }
+    
+    /**
+     * Matches data by index and records matching into metrics if they are set
+     */
+    private String match(byte[] array, int offset, int length) {
+        DetectionMetrics metrics = this.metrics;
+        if(metrics == null) {
+            return index.longestMatch(array, offset, length);
+        }
+        
+        long start = System.nanoTime();
+        String extension = index.longestMatch(array, offset, length);
+        metrics.recordMatch(extension, length, System.nanoTime() - start);
+        return extension;
+    }
+    
+    /**
+     * Returns count of header bytes enough to detect any known type
+     * 
+     * @return length of the longest signature or 0 if there are no signatures
+     */
+    private int headerLength() {
+        return Math.max(0, maxSignatureLength());
+    }
+    
+    /**
+     * Reads bytes from stream until <code>length</code> bytes read or EOF reached
+     * 
+     * @param stream source stream
+     * @param header array to store read bytes
+     * @param length count of bytes to read
+     * @return count of read bytes
+     * @throws IOException if an error occured at reading data
+     */
+    private static int readHeader(InputStream stream, byte[] header, int length) throws IOException {
+        int read = 0, count;
+        while(read < length && (count = stream.read(header, read, length - read)) != -1) {
+            read += count;
+        }
+        return read;
+    }
+    
+    /**
+     * One of possible types of data, found by {@link TypeDetector#detect(byte[], int, int, int)}
+     */
+    public static final class Candidate {
+        private final String extension;
+        private final int matchLength;
+        private final double confidence;
+        
+        Candidate(String extension, int matchLength, double confidence) {
+            this.extension = extension;
+            this.matchLength = matchLength;
+            this.confidence = confidence;
+        }
+        
+        /**
+         * Returns file extension of candidate
+         * 
+         * @return file extension
+         */
+        public String getExtension() {
+            return extension;
+        }
+        
+        /**
+         * Returns count of matched signature bytes. Wildcard bytes of<br>
+         * extended signatures are not counted
+         * 
+         * @return count of matched bytes
+         */
+        public int getMatchLength() {
+            return matchLength;
+        }
+        
+        /**
+         * Returns confidence of match between 0 and 1
+         * <p>Confidence is <code>coverage * n / (n + 1)</code>, where <code>n</code> is match length<br>
+         * and <code>coverage</code> is part of signature bytes matched: 1 for complete match.<br>
+         * So longer and more complete matches are more reliable</p>
+         * 
+         * @return confidence of match
+         */
+        public double getConfidence() {
+            return confidence;
+        }
+        
+        @Override
+        public String toString() {
+            return extension + " (" + matchLength + ", " + String.format(Locale.ROOT, "%.3f", confidence) + ")";
+        }
+    }
+    
+    /**
+     * Result of {@link TypeDetector#classify(byte[], int, int)}: type of data and charset of text
+     */
+    public static final class Detection {
+        private final String extension;
+        private final Charset charset;
+        private final int markLength;
+        
+        Detection(String extension, Charset charset, int markLength) {
+            this.extension = extension;
+            this.charset = charset;
+            this.markLength = markLength;
+        }
+        
+        /**
+         * Returns file extension of data
+         * 
+         * @return file extension or null if type is unknown
+         */
+        public String getExtension() {
+            return extension;
+        }
+        
+        /**
+         * Returns charset of text
+         * 
+         * @return charset or null if data is binary
+         */
+        public Charset getCharset() {
+            return charset;
+        }
+        
+        /**
+         * Returns true if data is text
+         * 
+         * @return true if charset is recognized
+         */
+        public boolean isText() {
+            return charset != null;
+        }
+        
+        /**
+         * Returns count of bytes of byte order mark, which must be skipped before decoding
+         * 
+         * @return length of byte order mark or 0 if data has no mark
+         */
+        public int getMarkLength() {
+            return markLength;
+        }
+        
+        @Override
+        public String toString() {
+            return extension + (charset == null ? "" : " (" + charset.name() + ")");
+        }
+    }
+    
+    /**
+     * Reads header of asynchronous channel until header is full or EOF reached,<br>
+     * then closes channel and completes future with detected extension
+     */
+    private class HeaderReader implements CompletionHandler<Integer, ByteBuffer> {
+        private final AsynchronousFileChannel channel;
+        private final CompletableFuture<String> future;
+        private final DetectionMetrics metrics = TypeDetector.this.metrics;
+        private final long start = metrics == null ? 0 : System.nanoTime();
+        
+        private HeaderReader(AsynchronousFileChannel channel, CompletableFuture<String> future) {
+            this.channel = channel;
+            this.future = future;
+        }
+        
+        @Override
+        public void completed(Integer count, ByteBuffer header) {
+            if(count != -1 && header.hasRemaining()) {
+                try {
+                    channel.read(header, header.position(), header, this);
+                } catch(RuntimeException re) {
+                    failed(re, header);
+                }
+                return;
+            }
+            
+            try {
+                channel.close();
+                header.flip();
+                if(metrics != null) {
+                    metrics.recordRead(System.nanoTime() - start);
+                }
+                future.complete(extension(header));
+            } catch(IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            } finally {
+                SharedBufferPool.getDefault().releaseDirect(header);
+            }
+        }
+        
+        @Override
+        public void failed(Throwable exception, ByteBuffer header) {
+            try {
+                channel.close();
+            } catch(IOException ioe) {
+                exception.addSuppressed(ioe);
             }
+            SharedBufferPool.getDefault().releaseDirect(header);
+            future.completeExceptionally(exception);
         }
-        return length;
     }
 }
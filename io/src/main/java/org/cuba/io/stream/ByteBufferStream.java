@@ -0,0 +1,251 @@
+package org.cuba.io.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import org.cuba.io.utils.FileUtils;
+
+/**
+ * In-memory {@link Stream} backed by growable heap or direct {@link ByteBuffer}
+ * <p>Written bytes are appended to the end of buffer and read from its beginning,<br>
+ *    so stream works as a queue of bytes. When buffer is full, already read bytes<br>
+ *    are discarded, and only then buffer is reallocated twice larger. Read returns<br>
+ *    -1 if all written bytes are read, write returns -1 if max capacity is reached</p>
+ * <p>Direct buffer is preferred when content is passed to channels: channels copy<br>
+ *    heap buffers into temporary direct buffers before every system call. Replaced<br>
+ *    direct buffer is released by garbage collector, not explicitly, because views<br>
+ *    returned by {@link #asReadOnlyBuffer()} may still refer to it</p>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public class ByteBufferStream extends Stream {
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private final boolean direct;
+    private final int maxCapacity;
+    private ByteBuffer buffer;
+    private boolean owned;
+
+    /**
+     * Creates empty heap stream of {@value FileUtils#DEFAULT_BUFFER_SIZE} bytes initial capacity
+     */
+    public ByteBufferStream() {
+        this(FileUtils.DEFAULT_BUFFER_SIZE, false);
+    }
+
+    /**
+     * Creates empty stream without limit of capacity
+     *
+     * @param initialCapacity initial capacity of buffer
+     * @param direct true if buffer must be direct
+     */
+    public ByteBufferStream(int initialCapacity, boolean direct) {
+        this(initialCapacity, MAX_CAPACITY, direct);
+    }
+
+    /**
+     * Creates empty stream
+     *
+     * @param initialCapacity initial capacity of buffer
+     * @param maxCapacity max count of unread bytes
+     * @param direct true if buffer must be direct
+     * @throws IllegalArgumentException if <code>initialCapacity</code> is negative or greater than <code>maxCapacity</code>
+     */
+    public ByteBufferStream(int initialCapacity, int maxCapacity, boolean direct) {
+        if(initialCapacity < 0 || initialCapacity > maxCapacity) {
+            throw new IllegalArgumentException("Initial capacity must be between 0 and " + maxCapacity);
+        }
+
+        this.direct = direct;
+        this.maxCapacity = Math.min(maxCapacity, MAX_CAPACITY);
+        this.buffer = direct ? ByteBuffer.allocateDirect(initialCapacity) : ByteBuffer.allocate(initialCapacity);
+        this.buffer.limit(0);
+        this.owned = true;
+    }
+
+    /**
+     * Creates stream, which reads remaining bytes of specified buffer.<br>
+     * Buffer is not copied until bytes are written to stream
+     *
+     * @param content buffer with content of stream
+     */
+    public ByteBufferStream(ByteBuffer content) {
+        if(content == null) {
+            throw new NullPointerException("Buffer is null");
+        }
+
+        this.direct = content.isDirect();
+        this.maxCapacity = MAX_CAPACITY;
+        this.buffer = content.slice();
+        this.owned = false;
+    }
+
+    @Override
+    public int write(byte[] bytes) {
+        return write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public int write(byte[] bytes, int offset, int limit) {
+        checkBounds(bytes, offset, limit);
+        if(limit == 0) {
+            return 0;
+        }
+
+        int count = reserve(limit);
+        if(count == 0) {
+            return -1;
+        }
+
+        int position = buffer.position();
+        int end = buffer.limit();
+        buffer.limit(end + count);
+        buffer.position(end);
+        buffer.put(bytes, offset, count);
+        buffer.position(position);
+        return count;
+    }
+
+    @Override
+    public int read(byte[] bytes) {
+        return read(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int limit) {
+        checkBounds(bytes, offset, limit);
+        if(limit == 0) {
+            return 0;
+        }
+        if(!buffer.hasRemaining()) {
+            return -1;
+        }
+
+        int count = Math.min(limit, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer source) {
+        int length = source.remaining();
+        if(length == 0) {
+            return 0;
+        }
+
+        int count = reserve(length);
+        if(count == 0) {
+            return -1;
+        }
+
+        int position = buffer.position();
+        int end = buffer.limit();
+        buffer.limit(end + count);
+        buffer.position(end);
+        copy(source, buffer);
+        buffer.position(position);
+        return count;
+    }
+
+    @Override
+    public int read(ByteBuffer target) {
+        if(target.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        if(!target.hasRemaining()) {
+            return 0;
+        }
+        if(!buffer.hasRemaining()) {
+            return -1;
+        }
+
+        return copy(buffer, target);
+    }
+
+    /**
+     * Returns count of written and not read bytes
+     *
+     * @return count of unread bytes
+     */
+    public int size() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Returns current capacity of buffer
+     *
+     * @return capacity of buffer
+     */
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Returns true if buffer is direct
+     *
+     * @return true if buffer is direct
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Returns copy of unread bytes. Bytes are not consumed
+     *
+     * @return unread bytes
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns read-only view of unread bytes. View is valid until next write
+     *
+     * @return read-only buffer
+     */
+    public ByteBuffer asReadOnlyBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Removes all unread bytes. Capacity of buffer is kept
+     */
+    public void clear() {
+        buffer.position(0);
+        buffer.limit(0);
+    }
+
+    /**
+     * Prepares space for <code>length</code> bytes after the end of buffer
+     *
+     * @return count of bytes, which can be written, 0 if max capacity is reached
+     */
+    private int reserve(int length) {
+        if(!buffer.isReadOnly() && buffer.capacity() - buffer.limit() >= length) {
+            return length;
+        }
+
+        int unread = buffer.remaining();
+        long required = (long)unread + length;
+        if(owned && required <= buffer.capacity()) {
+            buffer.compact();
+            buffer.flip();
+            return length;
+        }
+
+        int capacity = (int)Math.min(Math.max(buffer.capacity() * 2L, required), maxCapacity);
+        if(capacity <= unread) {
+            return 0;
+        }
+        ByteBuffer grown = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        grown.put(buffer);
+        grown.flip();
+        buffer = grown;
+        owned = true;
+        return Math.min(length, capacity - unread);
+    }
+}
@@ -0,0 +1,156 @@
+package org.cuba.io.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+
+/**
+ * Random-access {@link Stream} backed by {@link FileChannel}
+ * <p>Reads and writes start at current position of stream, which can be changed<br>
+ *    by {@link #position(long)}. Arrays are wrapped, not copied, so every call<br>
+ *    costs one system call. Write past the end of file extends file</p>
+ * <pre>
+ *     try(FileChannelStream stream = new FileChannelStream(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+ *         stream.position(stream.size());
+ *         stream.write(bytes);
+ *     }
+ * </pre>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public class FileChannelStream extends Stream implements Closeable {
+    private final FileChannel channel;
+
+    /**
+     * Opens file with specified options
+     *
+     * @see FileChannel#open(Path, OpenOption...)
+     *
+     * @param path file
+     * @param options options of opening, e. g. {@link java.nio.file.StandardOpenOption#READ}
+     * @throws IOException if an error occurred at opening file
+     */
+    public FileChannelStream(Path path, OpenOption... options) throws IOException {
+        this(FileChannel.open(path, options));
+    }
+
+    /**
+     * Wraps opened channel. Channel is closed by {@link #close()}
+     *
+     * @param channel opened channel
+     */
+    public FileChannelStream(FileChannel channel) {
+        if(channel == null) {
+            throw new NullPointerException("Channel is null");
+        }
+
+        this.channel = channel;
+    }
+
+    @Override
+    public int write(byte[] bytes) throws IOException {
+        return write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public int write(byte[] bytes, int offset, int limit) throws IOException {
+        checkBounds(bytes, offset, limit);
+        return channel.write(ByteBuffer.wrap(bytes, offset, limit));
+    }
+
+    @Override
+    public int read(byte[] bytes) throws IOException {
+        return read(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int limit) throws IOException {
+        checkBounds(bytes, offset, limit);
+        if(limit == 0) {
+            return 0;
+        }
+        return channel.read(ByteBuffer.wrap(bytes, offset, limit));
+    }
+
+    @Override
+    public int write(ByteBuffer buffer) throws IOException {
+        return channel.write(buffer);
+    }
+
+    /**
+     * Writes buffers by one gathering system call
+     *
+     * @see FileChannel#write(ByteBuffer[])
+     */
+    @Override
+    public long write(ByteBuffer[] buffers) throws IOException {
+        return channel.write(buffers);
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        if(!buffer.hasRemaining()) {
+            return 0;
+        }
+        return channel.read(buffer);
+    }
+
+    /**
+     * Reads buffers by one scattering system call
+     *
+     * @see FileChannel#read(ByteBuffer[])
+     */
+    @Override
+    public long read(ByteBuffer[] buffers) throws IOException {
+        return channel.read(buffers);
+    }
+
+    /**
+     * Returns current position in file
+     *
+     * @return position of the next read or written byte
+     * @throws IOException if an error occurred
+     */
+    public long position() throws IOException {
+        return channel.position();
+    }
+
+    /**
+     * Sets current position in file. Position can be greater than size of file
+     *
+     * @param position position of the next read or written byte
+     * @throws IOException if an error occurred
+     */
+    public void position(long position) throws IOException {
+        channel.position(position);
+    }
+
+    /**
+     * Returns current size of file
+     *
+     * @return size of file
+     * @throws IOException if an error occurred
+     */
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Returns underlying channel
+     *
+     * @return channel
+     */
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,207 @@
+package org.cuba.io.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.cuba.io.utils.MappedRegion;
+
+/**
+ * {@link Stream} over region of file mapped into memory
+ * <p>Reads and writes are plain memory copies, without system calls. Region<br>
+ *    has fixed size: read returns -1 and write returns -1 at the end of region.<br>
+ *    Region is limited by 2 GB, larger files can be read by {@link org.cuba.io.utils.MappedFile}</p>
+ * <p>{@link #close()} writes changes to storage and unmaps region immediately.<br>
+ *    <b>Warning!</b> Stream must not be closed while other threads use it</p>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public class MappedStream extends Stream implements Closeable {
+    private final FileChannel.MapMode mode;
+    private final MappedRegion region;
+
+    /**
+     * Maps whole file for reading
+     *
+     * @param path file not larger than 2 GB
+     * @throws IOException if an error occurred at mapping file
+     * @throws IllegalArgumentException if file is larger than 2 GB
+     */
+    public MappedStream(Path path) throws IOException {
+        this(path, FileChannel.MapMode.READ_ONLY, 0, -1);
+    }
+
+    /**
+     * Maps region of file. In {@link FileChannel.MapMode#READ_WRITE} mode file<br>
+     * is created and extended if it is shorter than region
+     *
+     * @param path file
+     * @param mode mode of mapping
+     * @param position position of region in file
+     * @param size size of region or -1 to map file from position to the end
+     * @throws IOException if an error occurred at mapping file
+     * @throws IllegalArgumentException if region is larger than 2 GB
+     */
+    public MappedStream(Path path, FileChannel.MapMode mode, long position, int size) throws IOException {
+        if(path == null) {
+            throw new NullPointerException("Path is null");
+        }
+        if(mode == null) {
+            throw new NullPointerException("Mode is null");
+        }
+
+        this.mode = mode;
+        try(FileChannel channel = mode == FileChannel.MapMode.READ_WRITE
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)
+                : FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = size;
+            if(size < 0) {
+                length = Math.max(0, channel.size() - position);
+                if(length > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Region is larger than 2 GB");
+                }
+            }
+            this.region = MappedRegion.map(channel, mode, position, length);
+        }
+    }
+
+    @Override
+    public int write(byte[] bytes) throws IOException {
+        return write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public int write(byte[] bytes, int offset, int limit) throws IOException {
+        checkBounds(bytes, offset, limit);
+        MappedByteBuffer buffer = buffer();
+        if(mode == FileChannel.MapMode.READ_ONLY) {
+            throw new ReadOnlyBufferException();
+        }
+        if(limit == 0) {
+            return 0;
+        }
+        if(!buffer.hasRemaining()) {
+            return -1;
+        }
+
+        int count = Math.min(limit, buffer.remaining());
+        buffer.put(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public int read(byte[] bytes) throws IOException {
+        return read(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int limit) throws IOException {
+        checkBounds(bytes, offset, limit);
+        MappedByteBuffer buffer = buffer();
+        if(limit == 0) {
+            return 0;
+        }
+        if(!buffer.hasRemaining()) {
+            return -1;
+        }
+
+        int count = Math.min(limit, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer source) throws IOException {
+        MappedByteBuffer buffer = buffer();
+        if(mode == FileChannel.MapMode.READ_ONLY) {
+            throw new ReadOnlyBufferException();
+        }
+        if(!source.hasRemaining()) {
+            return 0;
+        }
+        if(!buffer.hasRemaining()) {
+            return -1;
+        }
+
+        return copy(source, buffer);
+    }
+
+    @Override
+    public int read(ByteBuffer target) throws IOException {
+        MappedByteBuffer buffer = buffer();
+        if(target.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        if(!target.hasRemaining()) {
+            return 0;
+        }
+        if(!buffer.hasRemaining()) {
+            return -1;
+        }
+
+        return copy(buffer, target);
+    }
+
+    /**
+     * Returns current position in region
+     *
+     * @return position of the next read or written byte
+     * @throws IOException if stream is closed
+     */
+    public int position() throws IOException {
+        return buffer().position();
+    }
+
+    /**
+     * Sets current position in region
+     *
+     * @param position position of the next read or written byte
+     * @throws IOException if stream is closed
+     * @throws IllegalArgumentException if <code>position</code> is out of region
+     */
+    public void position(int position) throws IOException {
+        buffer().position(position);
+    }
+
+    /**
+     * Returns size of region
+     *
+     * @return size of region
+     * @throws IOException if stream is closed
+     */
+    public int size() throws IOException {
+        return buffer().capacity();
+    }
+
+    /**
+     * Writes changes of region to storage
+     *
+     * @throws IOException if stream is closed
+     */
+    public void force() throws IOException {
+        MappedByteBuffer buffer = buffer();
+        if(mode == FileChannel.MapMode.READ_WRITE) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Writes changes to storage and unmaps region. Calling of this method<br>
+     * on closed stream does nothing
+     */
+    @Override
+    public void close() throws IOException {
+        region.close();
+    }
+
+    private MappedByteBuffer buffer() throws IOException {
+        return region.buffer();
+    }
+}
@@ -1,6 +1,10 @@
 package org.cuba.io.stream;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import org.cuba.io.utils.SharedBufferPool;
 
 public abstract class Stream {
     /**
@@ -61,4 +65,172 @@ public abstract class Stream {
      * @throws IOException if some exception at writing occurred
      */
     public abstract int read(byte[] bytes, int offset, int limit) throws IOException;
+    
+    /**
+     * Writes remaining bytes of buffer to some storage.<br>
+     * The method does not guarantee to write all remaining bytes,<br>
+     * so the number of successfully written bytes will be returned as a result.<br>
+     * Position of buffer is moved by count of written bytes
+     * <p>Default implementation passes array of heap buffer to {@link #write(byte[], int, int)}<br>
+     * and copies direct buffer through temporary array. Implementations backed by channels<br>
+     * or buffers override it to pass direct buffers without copying</p>
+     * 
+     * @param buffer buffer to write
+     * @return number of written bytes or -1 if EOF found
+     * @throws IOException if some exception at writing occurred
+     */
+    public int write(ByteBuffer buffer) throws IOException {
+        if(buffer.hasArray()) {
+            int count = write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if(count > 0) {
+                buffer.position(buffer.position() + count);
+            }
+            return count;
+        }
+        
+        SharedBufferPool pool = SharedBufferPool.getDefault();
+        byte[] bytes = pool.acquire(Math.min(buffer.remaining(), pool.getMaxLength()));
+        try {
+            int length = Math.min(buffer.remaining(), bytes.length);
+            buffer.duplicate().get(bytes, 0, length);
+            int count = write(bytes, 0, length);
+            if(count > 0) {
+                buffer.position(buffer.position() + count);
+            }
+            return count;
+        } finally {
+            pool.release(bytes);
+        }
+    }
+    
+    /**
+     * Writes remaining bytes of buffers in order of array (gather write).<br>
+     * Writing stops at the first buffer, which is not written completely
+     * 
+     * @param buffers buffers to write
+     * @return number of written bytes or -1 if EOF found before any byte written
+     * @throws IOException if some exception at writing occurred
+     */
+    public long write(ByteBuffer[] buffers) throws IOException {
+        long total = 0;
+        for(ByteBuffer buffer : buffers) {
+            int remaining = buffer.remaining();
+            if(remaining == 0) {
+                continue;
+            }
+            int count = write(buffer);
+            if(count == -1) {
+                return total == 0 ? -1 : total;
+            }
+            total += count;
+            if(count < remaining) {
+                break;
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Reads a sequece of bytes from some storage into remaining space of buffer.<br>
+     * The method does not guarantee to fill the buffer,<br>
+     * so the number of successfully read bytes will be returned as a result.<br>
+     * Position of buffer is moved by count of read bytes
+     * <p>Default implementation passes array of heap buffer to {@link #read(byte[], int, int)}<br>
+     * and copies into direct buffer through temporary array. Implementations backed by channels<br>
+     * or buffers override it to fill direct buffers without copying</p>
+     * 
+     * @param buffer buffer to store read bytes
+     * @return number of read bytes or -1 if EOF found
+     * @throws IOException if some exception at reading occurred
+     */
+    public int read(ByteBuffer buffer) throws IOException {
+        if(buffer.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        if(buffer.hasArray()) {
+            int count = read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if(count > 0) {
+                buffer.position(buffer.position() + count);
+            }
+            return count;
+        }
+        
+        SharedBufferPool pool = SharedBufferPool.getDefault();
+        byte[] bytes = pool.acquire(Math.min(buffer.remaining(), pool.getMaxLength()));
+        try {
+            int count = read(bytes, 0, Math.min(buffer.remaining(), bytes.length));
+            if(count > 0) {
+                buffer.put(bytes, 0, count);
+            }
+            return count;
+        } finally {
+            pool.release(bytes);
+        }
+    }
+    
+    /**
+     * Reads a sequece of bytes into remaining space of buffers in order of array<br>
+     * (scatter read). Reading stops at the first buffer, which is not filled completely
+     * 
+     * @param buffers buffers to store read bytes
+     * @return number of read bytes or -1 if EOF found before any byte read
+     * @throws IOException if some exception at reading occurred
+     */
+    public long read(ByteBuffer[] buffers) throws IOException {
+        long total = 0;
+        for(ByteBuffer buffer : buffers) {
+            int remaining = buffer.remaining();
+            if(remaining == 0) {
+                continue;
+            }
+            int count = read(buffer);
+            if(count == -1) {
+                return total == 0 ? -1 : total;
+            }
+            total += count;
+            if(count < remaining) {
+                break;
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Copies as many bytes as possible from remaining bytes of source to remaining space<br>
+     * of target. Positions of both buffers are moved by count of copied bytes
+     * 
+     * @param source source buffer
+     * @param target target buffer
+     * @return count of copied bytes
+     */
+    protected static int copy(ByteBuffer source, ByteBuffer target) {
+        int count = Math.min(source.remaining(), target.remaining());
+        if(count == source.remaining()) {
+            target.put(source);
+        } else {
+            ByteBuffer part = source.duplicate();
+            part.limit(part.position() + count);
+            target.put(part);
+            source.position(source.position() + count);
+        }
+        return count;
+    }
+    
+    /**
+     * Checks arguments of array methods
+     * 
+     * @param bytes array
+     * @param offset array offset
+     * @param limit max count of bytes
+     * @throws NullPointerException if <code>bytes</code> is null
+     * @throws IndexOutOfBoundsException if <code>offset</code> or <code>limit</code> is out of array
+     */
+    protected static void checkBounds(byte[] bytes, int offset, int limit) {
+        if(bytes == null) {
+            throw new NullPointerException("Array is null");
+        }
+        if(offset < 0 || limit < 0 || limit > bytes.length - offset) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + limit + ") out of bounds for length " + bytes.length);
+        }
+    }
 }
@@ -0,0 +1,79 @@
+package org.cuba.io.utils;
+
+/**
+ * Source of reusable byte arrays
+ * <p>Arrays returned by {@link #acquire(int)} are owned by caller until<br>
+ *    they are passed to {@link #release(byte[])}. Content of acquired array<br>
+ *    is undefined, array can be longer than requested</p>
+ * <pre>
+ *     byte[] buffer = pool.acquire(4096);
+ *     try {
+ *         ...
+ *     } finally {
+ *         pool.release(buffer);
+ *     }
+ * </pre>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public interface BufferPool {
+    /**
+     * Returns array of at least specified length
+     *
+     * @param length min length of array
+     * @return array, never null
+     * @throws IllegalArgumentException if <code>length</code> is negative
+     */
+    byte[] acquire(int length);
+
+    /**
+     * Returns array to pool. Array must not be used by caller after this call
+     *
+     * @param buffer array acquired from this pool
+     */
+    void release(byte[] buffer);
+
+    /**
+     * Returns pool, which keeps one array per thread. Arrays longer than<br>
+     * <code>maxLength</code> are allocated on every request and never cached
+     * <p>Array is kept in {@link ThreadLocal}, so this layer does nothing for virtual threads:<br>
+     *    they are created per task and never reuse cached array. Use {@link SharedBufferPool} for them</p>
+     *
+     * @param maxLength max length of cached array
+     * @return new per-thread pool
+     * @throws IllegalArgumentException if <code>maxLength</code> is negative
+     */
+    static BufferPool perThread(int maxLength) {
+        if(maxLength < 0) {
+            throw new IllegalArgumentException("Max length must not be negative");
+        }
+
+        ThreadLocal<byte[]> cache = new ThreadLocal<>();
+        return new BufferPool() {
+            @Override
+            public byte[] acquire(int length) {
+                if(length < 0) {
+                    throw new IllegalArgumentException("Length must not be negative");
+                }
+                byte[] buffer = cache.get();
+                if(buffer != null && buffer.length >= length) {
+                    cache.set(null);
+                    return buffer;
+                }
+                return new byte[length];
+            }
+
+            @Override
+            public void release(byte[] buffer) {
+                if(buffer != null && buffer.length <= maxLength) {
+                    byte[] cached = cache.get();
+                    if(cached == null || cached.length < buffer.length) {
+                        cache.set(buffer);
+                    }
+                }
+            }
+        };
+    }
+}
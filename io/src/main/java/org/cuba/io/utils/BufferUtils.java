@@ -0,0 +1,82 @@
+package org.cuba.io.utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Provides tools for direct and memory-mapped buffers
+ * <p>Tools are package-private: only views, which own their buffers and never<br>
+ *    hand them out after closing, e. g. {@link MappedFile} and {@link MappedRegion},<br>
+ *    may release memory explicitly</p>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+final class BufferUtils {
+    private static final Unmapper unmapper = Unmapper.find();
+
+    private BufferUtils() {
+
+    }
+
+    /**
+     * Releases memory of direct or memory-mapped buffer immediately, without waiting<br>
+     * for garbage collection. Heap buffers, duplicates and slices are ignored
+     * <p><b>Warning!</b> Buffer and all its duplicates must not be used after this call:<br>
+     *    access to released memory crashes virtual machine</p>
+     *
+     * @param buffer direct buffer
+     */
+    static void free(ByteBuffer buffer) {
+        if(buffer != null && buffer.isDirect()) {
+            unmapper.unmap(buffer);
+        }
+    }
+
+    /**
+     * Releases memory of direct buffers without waiting for garbage collection.<br>
+     * Java 9+ provides <code>sun.misc.Unsafe.invokeCleaner</code>, Java 8 provides cleaner of<br>
+     * <code>sun.nio.ch.DirectBuffer</code>. If both are unavailable, memory is released by garbage collector
+     */
+    private interface Unmapper {
+        void unmap(ByteBuffer buffer);
+
+        static Unmapper find() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                Object unsafe = field.get(null);
+                return buffer -> {
+                    try {
+                        invokeCleaner.invoke(unsafe, buffer);
+                    } catch(ReflectiveOperationException e) {
+                        // memory is released by garbage collector
+                    }
+                };
+            } catch(ReflectiveOperationException | RuntimeException e) {
+                // Java 8
+            }
+
+            try {
+                Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                return buffer -> {
+                    try {
+                        Object instance = cleaner.invoke(buffer);
+                        if(instance != null) {
+                            clean.invoke(instance);
+                        }
+                    } catch(ReflectiveOperationException | RuntimeException e) {
+                        // memory is released by garbage collector
+                    }
+                };
+            } catch(ReflectiveOperationException | RuntimeException e) {
+                return buffer -> { };
+            }
+        }
+    }
+}
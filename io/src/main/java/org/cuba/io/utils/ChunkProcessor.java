@@ -0,0 +1,32 @@
+package org.cuba.io.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Processes one chunk of file, e. g. computes checksum or counts lines
+ * <p>Chunks are processed by different threads simultaneously, so processor<br>
+ *    must not share mutable state between calls. Results of chunks are combined<br>
+ *    by reducer in order of chunks</p>
+ *
+ * @see FileUtils#processChunks(java.nio.file.Path, int, ChunkProcessor, java.util.function.BinaryOperator)
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ *
+ * @param <R> type of result
+ */
+@FunctionalInterface
+public interface ChunkProcessor<R> {
+    /**
+     * Processes chunk of file
+     *
+     * @param position index of the first byte of chunk in file
+     * @param chunk bytes of chunk between position and limit of buffer.<br>
+     *        Buffer must not be used after returning from this method
+     * @return result of chunk
+     * @throws IOException if an error occurred at processing
+     */
+    R process(long position, ByteBuffer chunk) throws IOException;
+}
@@ -0,0 +1,77 @@
+package org.cuba.io.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * Processes range of file chunks by splitting it in halves until one chunk left.<br>
+ * Every chunk is read by positional reads, so all tasks share one channel.<br>
+ * Arrays of chunks are leased from {@link SharedBufferPool#getDefault()}
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ *
+ * @param <R> type of result
+ */
+class ChunkTask<R> extends RecursiveTask<R> {
+    private static final long serialVersionUID = 1L;
+
+    private final FileChannel channel;
+    private final long[] bounds;
+    private final int from;
+    private final int to;
+    private final ChunkProcessor<R> processor;
+    private final BinaryOperator<R> reducer;
+
+    /**
+     * Creates task for chunks from <code>from</code> inclusive to <code>to</code> exclusive.<br>
+     * Chunk <code>i</code> starts at <code>bounds[i]</code> and ends at <code>bounds[i + 1]</code>
+     */
+    ChunkTask(FileChannel channel, long[] bounds, int from, int to, ChunkProcessor<R> processor, BinaryOperator<R> reducer) {
+        this.channel = channel;
+        this.bounds = bounds;
+        this.from = from;
+        this.to = to;
+        this.processor = processor;
+        this.reducer = reducer;
+    }
+
+    @Override
+    protected R compute() {
+        if(to - from == 1) {
+            SharedBufferPool pool = SharedBufferPool.getDefault();
+            int length = (int)(bounds[to] - bounds[from]);
+            byte[] array = pool.acquire(length);
+            try {
+                return processor.process(bounds[from], read(array, bounds[from], length));
+            } catch(IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            } finally {
+                pool.release(array);
+            }
+        }
+
+        int middle = (from + to) >>> 1;
+        ChunkTask<R> left = new ChunkTask<>(channel, bounds, from, middle, processor, reducer);
+        ChunkTask<R> right = new ChunkTask<>(channel, bounds, middle, to, processor, reducer);
+        left.fork();
+        R rightResult = right.compute();
+        return reducer.apply(left.join(), rightResult);
+    }
+
+    private ByteBuffer read(byte[] array, long position, int length) throws IOException {
+        ByteBuffer chunk = ByteBuffer.wrap(array, 0, length);
+        while(chunk.hasRemaining()) {
+            if(channel.read(chunk, position + chunk.position()) == -1) {
+                break;
+            }
+        }
+        chunk.flip();
+        return chunk;
+    }
+}
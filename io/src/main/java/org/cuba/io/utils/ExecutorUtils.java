@@ -0,0 +1,74 @@
+package org.cuba.io.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides executors for asynchronous in/out operations
+ * <p>Library is compiled for Java 8, so virtual threads are obtained<br>
+ *    reflectively and used only when the runtime supports them</p>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public class ExecutorUtils {
+    private static final Method newVirtualThreadPerTaskExecutor = findVirtualThreadFactory();
+
+    /**
+     * Returns true if runtime supports virtual threads
+     *
+     * @return true if virtual threads are supported
+     */
+    public static boolean isVirtualThreadSupported() {
+        return newVirtualThreadPerTaskExecutor != null;
+    }
+
+    /**
+     * Returns new executor, which starts new virtual thread for each task<br>
+     * if runtime supports virtual threads, otherwise returns cached pool of<br>
+     * daemon platform threads
+     * <p>Blocking in/out operations do not occupy platform threads when virtual<br>
+     *    threads are supported, so such executor suits for slow storages</p>
+     *
+     * @param name prefix of names of platform threads, used if virtual threads are not supported
+     * @return new executor
+     */
+    public static ExecutorService newVirtualThreadExecutor(String name) {
+        if(newVirtualThreadPerTaskExecutor != null) {
+            try {
+                return (ExecutorService)newVirtualThreadPerTaskExecutor.invoke(null);
+            } catch(IllegalAccessException | InvocationTargetException e) {
+                // falls back to platform threads
+            }
+        }
+        return Executors.newCachedThreadPool(daemonThreadFactory(name));
+    }
+
+    /**
+     * Returns factory of daemon threads with specified name prefix
+     *
+     * @param name prefix of names of threads
+     * @return thread factory
+     */
+    public static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static Method findVirtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch(NoSuchMethodException nsme) {
+            return null;
+        }
+    }
+}
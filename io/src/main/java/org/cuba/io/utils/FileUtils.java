@@ -1,11 +1,17 @@
 package org.cuba.io.utils;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BinaryOperator;
 
 /**
  * Provides methods similar to those of the java class.nio.Files,<br>
@@ -20,14 +26,18 @@ public class FileUtils {
      */
     public static final int DEFAULT_BUFFER_SIZE = 4096; 
     /**
-     * Larger buffer sizes result in unsafe memory usage. Class methods<br>
-     * are not synchronized and can be called by different threads, resulting in memory overruns
+     * Larger buffers do not speed up sequential I/O, which is limited by read-ahead<br>
+     * of operating system, but increase memory retained by pools of every thread
      */
     public static final int MAX_BUFFER_SIZE = 65536;
     /**
      * Smaller buffer size results in lower performance
      */
     public static final int MIN_BUFFER_SIZE = 64;
+    /**
+     * Some virtual machines reserve header words in an array
+     */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
     
     /**
      * Returns an array of bytes read from the selected file
@@ -50,9 +60,10 @@ public class FileUtils {
      * Returns an array of bytes read from the selected file. Reading<br>
      * is performed using a buffer of the specified size
      * <p>
-     *     Calling of this method is similar to calling {@link #readAllBytes(InputStream, int)}<br>
-     *     method with created FileInputStream. But this method uses safety try-with-resources construction<br>
-     *     and creates buffered stream
+     *     Size of file is requested before reading, so result array is allocated once<br>
+     *     and filled by {@link FileChannel} directly, without intermediate buffers.<br>
+     *     Buffer of the specified size is used only for files of unknown size,<br>
+     *     e. g. special files, which report zero size
      * </p>
      * 
      * @see #readAllBytes(InputStream, int)
@@ -61,12 +72,257 @@ public class FileUtils {
      * @param bufferSize the size of the buffer used to read
      * @return an array of bytes read from the selected file
      * @throws IOException if an error occured at file reading
+     * @throws IllegalArgumentException if <code>bufferSize</code> less than {@value #MIN_BUFFER_SIZE} or greater than {@value #MAX_BUFFER_SIZE}
+     * @throws OutOfMemoryError if file is larger than max size of array
      */
     public static byte[] readAllBytes(File file, int bufferSize) throws IOException {
-        try(FileInputStream fileStream = new FileInputStream(file);
-            BufferedInputStream bufferedStream = new BufferedInputStream(fileStream)) {
+        checkBufferSize(bufferSize);
+        if(file == null) {
+            throw new NullPointerException("File is null");
+        }
+        
+        return readAllBytes(file.toPath(), bufferSize);
+    }
+    
+    /**
+     * Returns an array of bytes read from the selected file
+     * 
+     * @see #readAllBytes(File, int)
+     * 
+     * @param path specified exists file
+     * @return an array of bytes read from the selected file
+     * @throws IOException if an error occured at file reading
+     * @throws OutOfMemoryError if file is larger than max size of array
+     */
+    public static byte[] readAllBytes(Path path) throws IOException {
+        return readAllBytes(path, DEFAULT_BUFFER_SIZE);
+    }
+    
+    /**
+     * Maps the selected file into memory. Unlike reading methods, this method<br>
+     * supports files larger than 2 GB and does not copy file into heap
+     * 
+     * @see MappedFile
+     * 
+     * @param path specified exists file
+     * @return read-only view of file, must be closed to unmap file
+     * @throws IOException if an error occured at opening or mapping of file
+     */
+    public static MappedFile map(Path path) throws IOException {
+        return new MappedFile(path);
+    }
+    
+    /**
+     * Splits file into chunks and processes them in parallel by {@link ForkJoinPool#commonPool()}
+     * 
+     * @see #processChunks(Path, int, ChunkProcessor, BinaryOperator, ForkJoinPool)
+     * 
+     * @param <R> type of result
+     * @param path specified exists file
+     * @param chunkSize size of chunk, not less than {@value #MIN_BUFFER_SIZE}
+     * @param processor processor of one chunk
+     * @param reducer combines results of neighbouring chunks
+     * @return combined result of all chunks
+     * @throws IOException if an error occured at file reading or processing
+     */
+    public static <R> R processChunks(Path path, int chunkSize, ChunkProcessor<R> processor, BinaryOperator<R> reducer) throws IOException {
+        return processChunks(path, chunkSize, processor, reducer, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Splits file into chunks and processes them in parallel by specified pool
+     * <p>
+     *     Chunk size is rounded down to multiple of {@value #DEFAULT_BUFFER_SIZE}, if it is larger,<br>
+     *     so chunks are aligned with clasters of data storage. All chunks are read by<br>
+     *     positional reads of one {@link FileChannel}. Results of chunks are combined by<br>
+     *     reducer in order of chunks, e. g. <code>reduce(reduce(r0, r1), reduce(r2, r3))</code>,<br>
+     *     so reducer must be associative. Empty file is processed as one empty chunk
+     * </p>
+     * <pre>
+     *     long zeros = FileUtils.processChunks(path, 1 &lt;&lt; 20, (position, chunk) -&gt; {
+     *         long count = 0;
+     *         while(chunk.hasRemaining()) {
+     *             count += chunk.get() == 0 ? 1 : 0;
+     *         }
+     *         return count;
+     *     }, Long::sum, pool);
+     * </pre>
+     * 
+     * @param <R> type of result
+     * @param path specified exists file
+     * @param chunkSize size of chunk, not less than {@value #MIN_BUFFER_SIZE}
+     * @param processor processor of one chunk
+     * @param reducer combines results of neighbouring chunks
+     * @param pool pool, which runs processing
+     * @return combined result of all chunks
+     * @throws IOException if an error occured at file reading or processing
+     * @throws IllegalArgumentException if <code>chunkSize</code> less than {@value #MIN_BUFFER_SIZE}
+     */
+    public static <R> R processChunks(Path path, int chunkSize, ChunkProcessor<R> processor, BinaryOperator<R> reducer, ForkJoinPool pool) throws IOException {
+        return process(path, chunkSize, false, processor, reducer, pool);
+    }
+    
+    /**
+     * Splits file of newline-delimited records into chunks and processes them in parallel<br>
+     * by {@link ForkJoinPool#commonPool()}
+     * 
+     * @see #processLines(Path, int, ChunkProcessor, BinaryOperator, ForkJoinPool)
+     * 
+     * @param <R> type of result
+     * @param path specified exists file
+     * @param chunkSize size of chunk, not less than {@value #MIN_BUFFER_SIZE}
+     * @param processor processor of one chunk
+     * @param reducer combines results of neighbouring chunks
+     * @return combined result of all chunks
+     * @throws IOException if an error occured at file reading or processing
+     */
+    public static <R> R processLines(Path path, int chunkSize, ChunkProcessor<R> processor, BinaryOperator<R> reducer) throws IOException {
+        return processLines(path, chunkSize, processor, reducer, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Splits file of newline-delimited records into chunks and processes them in parallel<br>
+     * by specified pool
+     * <p>
+     *     Works as {@link #processChunks(Path, int, ChunkProcessor, BinaryOperator, ForkJoinPool)},<br>
+     *     but every chunk boundary is moved forward to the beginning of the next record,<br>
+     *     so each record, including its <code>'\n'</code>, belongs to exactly one chunk.<br>
+     *     Chunks can be larger than <code>chunkSize</code> by length of one record.<br>
+     *     Records are not split, only chunks containing at least one record are processed
+     * </p>
+     * 
+     * @param <R> type of result
+     * @param path specified exists file
+     * @param chunkSize size of chunk, not less than {@value #MIN_BUFFER_SIZE}
+     * @param processor processor of one chunk
+     * @param reducer combines results of neighbouring chunks
+     * @param pool pool, which runs processing
+     * @return combined result of all chunks
+     * @throws IOException if an error occured at file reading or processing
+     * @throws IllegalArgumentException if <code>chunkSize</code> less than {@value #MIN_BUFFER_SIZE}
+     */
+    public static <R> R processLines(Path path, int chunkSize, ChunkProcessor<R> processor, BinaryOperator<R> reducer, ForkJoinPool pool) throws IOException {
+        return process(path, chunkSize, true, processor, reducer, pool);
+    }
+    
+    private static <R> R process(Path path, int chunkSize, boolean lines, ChunkProcessor<R> processor, BinaryOperator<R> reducer, ForkJoinPool pool) throws IOException {
+        if(chunkSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Size of chunk must be greater than " + MIN_BUFFER_SIZE);
+        }
+        if(processor == null) {
+            throw new NullPointerException("Processor is null");
+        }
+        if(reducer == null) {
+            throw new NullPointerException("Reducer is null");
+        }
+        if(pool == null) {
+            throw new NullPointerException("Pool is null");
+        }
+        
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] bounds = bounds(channel, chunkSize, lines);
+            return pool.invoke(new ChunkTask<>(channel, bounds, 0, bounds.length - 1, processor, reducer));
+        } catch(UncheckedIOException uioe) {
+            Throwable cause = uioe;
+            while(cause != null && !(cause instanceof IOException)) {
+                cause = cause.getCause();
+            }
+            if(cause == null) {
+                throw uioe;
+            }
+            throw (IOException)cause;
+        }
+    }
+    
+    /**
+     * Returns offsets of chunks and size of file as the last element
+     */
+    private static long[] bounds(FileChannel channel, int chunkSize, boolean lines) throws IOException {
+        long size = channel.size();
+        long step = chunkSize < DEFAULT_BUFFER_SIZE ? chunkSize : chunkSize - chunkSize % DEFAULT_BUFFER_SIZE;
+        long count = Math.max(1, (size + step - 1) / step);
+        if(count >= MAX_ARRAY_SIZE) {
+            throw new IllegalArgumentException("Size of chunk is too small for file of " + size + " bytes");
+        }
+        
+        long[] bounds = new long[(int)count + 1];
+        bounds[bounds.length - 1] = size;
+        int length = 1;
+        SharedBufferPool pool = SharedBufferPool.getDefault();
+        byte[] array = lines ? pool.acquire(DEFAULT_BUFFER_SIZE) : null;
+        try {
+            ByteBuffer buffer = lines ? ByteBuffer.wrap(array, 0, DEFAULT_BUFFER_SIZE) : null;
+            for(int i = 1; i < count; i++) {
+                long bound = i * step;
+                if(lines) {
+                    bound = Math.max(bound, bounds[length - 1]);
+                    bound = bound >= size ? size : nextLine(channel, buffer, bound);
+                    if(bound == bounds[length - 1] || bound == size) {
+                        continue;
+                    }
+                }
+                bounds[length++] = bound;
+            }
+        } finally {
+            pool.release(array);
+        }
+        bounds[length++] = size;
+        return length == bounds.length ? bounds : Arrays.copyOf(bounds, length);
+    }
+    
+    /**
+     * Returns offset of the first record, which starts at or after specified offset
+     */
+    private static long nextLine(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        long position = offset - 1;
+        while(true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if(read == -1) {
+                return channel.size();
+            }
+            for(int i = 0; i < read; i++) {
+                if(buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+    
+    private static byte[] readAllBytes(Path path, int bufferSize) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readAllBytes(channel, channel.size(), bufferSize);
+        }
+    }
+    
+    /**
+     * Reads channel from its position to the end into array of expected size.<br>
+     * If channel contains more bytes than expected, e. g. file was appended, array is grown
+     */
+    private static byte[] readAllBytes(FileChannel channel, long size, int bufferSize) throws IOException {
+        if(size > MAX_ARRAY_SIZE) {
+            throw new OutOfMemoryError("File is too large: " + size + " bytes");
+        }
+        
+        byte[] array = new byte[size > 0 ? (int)size : bufferSize];
+        int count = 0;
+        while(true) {
+            ByteBuffer target = ByteBuffer.wrap(array, count, array.length - count);
+            while(target.hasRemaining() && channel.read(target) != -1);
+            count = target.position();
+            if(count < array.length) {
+                return Arrays.copyOf(array, count);
+            }
             
-            return readAllBytes(bufferedStream, bufferSize);
+            ByteBuffer probe = ByteBuffer.allocate(1);
+            int next;
+            while((next = channel.read(probe)) == 0);
+            if(next == -1) {
+                return array;
+            }
+            array = grow(array, bufferSize);
+            array[count++] = probe.get(0);
         }
     }
     
@@ -78,8 +334,10 @@ public class FileUtils {
      *     {@link #MIN_BUFFER_SIZE} and less than {@link #MAX_BUFFER_SIZE}. If one of <br>
      *     these conditions is not met an {@link IllegalArgumentException} will be thrown. <br>
      *     Also, stream must not be null. It will be checked defore resources allocated.<br>
-     *     For storing read bytes used ByteArrayOutputStream, created in try-with-resources constrcution<br>
-     *     It is neccessary to provide auto-close of stream is some exception thrown at reading
+     *     If given stream is FileInputStream, its remaining size is known and bytes<br>
+     *     are read by its channel directly into result array. Otherwise bytes are read<br>
+     *     into buffer leased from {@link SharedBufferPool#getDefault()}, and only streams<br>
+     *     longer than buffer are read into array, which grows as required
      * </p>
      * <p><b>Important!</b><br>This method <b>DOES NOT</b> close given stream after reading or when error occured</p>
      * 
@@ -92,25 +350,66 @@ public class FileUtils {
      * @throws NullPointerException if <code>inputStream</code> is null
      */
     public static byte[] readAllBytes(InputStream inputStream, int bufferSize) throws IOException {
-        if(bufferSize > MAX_BUFFER_SIZE) {
-            throw new IllegalArgumentException("Size of buffer must be less than " + MAX_BUFFER_SIZE);
-        }
-        if(bufferSize < MIN_BUFFER_SIZE) {
-            throw new IllegalArgumentException("Size of buffer must be greater than " + MIN_BUFFER_SIZE);
-        }
+        checkBufferSize(bufferSize);
         if(inputStream == null) {
             throw new NullPointerException("Stream is null");
         }
+        
+        if(inputStream.getClass() == FileInputStream.class) {
+            FileChannel channel = ((FileInputStream)inputStream).getChannel();
+            long size = channel.size() - channel.position();
+            if(size > 0) {
+                return readAllBytes(channel, size, bufferSize);
+            }
+        }
                          
-        try(ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream()) {
-            byte[] buffer = new byte[bufferSize];
-            int length;
-            
-            while((length = inputStream.read(buffer)) != -1) {
-                byteArrayStream.write(buffer, 0, length);
+        SharedBufferPool pool = SharedBufferPool.getDefault();
+        byte[] buffer = pool.acquire(bufferSize);
+        byte[] array;
+        int count = 0, length;
+        try {
+            while(count < bufferSize && (length = inputStream.read(buffer, count, bufferSize - count)) != -1) {
+                count += length;
             }
-            
-            return byteArrayStream.toByteArray();   
+            if(count < bufferSize) {
+                return Arrays.copyOf(buffer, count);
+            }
+            array = Arrays.copyOf(buffer, bufferSize);
+        } finally {
+            pool.release(buffer);
+        }
+        
+        while(true) {
+            if((length = inputStream.read()) == -1) {
+                return count == array.length ? array : Arrays.copyOf(array, count);
+            }
+            if(count == array.length) {
+                array = grow(array, bufferSize);
+            }
+            array[count++] = (byte)length;
+            while(count < array.length && (length = inputStream.read(array, count, array.length - count)) != -1) {
+                count += length;
+            }
+            if(count < array.length) {
+                return Arrays.copyOf(array, count);
+            }
+        }
+    }
+    
+    private static byte[] grow(byte[] array, int bufferSize) {
+        if(array.length == MAX_ARRAY_SIZE) {
+            throw new OutOfMemoryError("Required array size too large");
+        }
+        long length = Math.max(array.length * 2L, array.length + (long)bufferSize);
+        return Arrays.copyOf(array, (int)Math.min(length, MAX_ARRAY_SIZE));
+    }
+    
+    private static void checkBufferSize(int bufferSize) {
+        if(bufferSize > MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Size of buffer must be less than " + MAX_BUFFER_SIZE);
+        }
+        if(bufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Size of buffer must be greater than " + MIN_BUFFER_SIZE);
         }
     }
 }
@@ -0,0 +1,243 @@
+package org.cuba.io.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Read-only view of file mapped into memory
+ * <p>File is mapped by one or more {@link MappedByteBuffer} segments, so files<br>
+ *    larger than 2 GB are supported and bytes are addressed by <code>long</code> index.<br>
+ *    Data is read directly from page cache without copying into heap, except<br>
+ *    bytes explicitly copied by {@link #get(long, byte[], int, int)}</p>
+ * <p>{@link #close()} unmaps segments instead of waiting for garbage collection,<br>
+ *    so file can be deleted or mapped again right after closing. View can be read<br>
+ *    and closed by many threads: every access is counted, and segments are unmapped<br>
+ *    when the last access started before closing completes. Accesses started after<br>
+ *    closing throw {@link IllegalStateException}</p>
+ * <p><b>Warning!</b> Buffers returned by {@link #segment(int)} are not counted and<br>
+ *    must not be used after closing: access to unmapped memory crashes virtual machine</p>
+ * <pre>
+ *     try(MappedFile file = new MappedFile(path)) {
+ *         byte[] part = new byte[4096];
+ *         file.get(file.size() - part.length, part, 0, part.length);
+ *     }
+ * </pre>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public class MappedFile implements Closeable {
+    /**
+     * Segments are 1 GB long, so index of segment is computed by shift
+     */
+    private static final int SEGMENT_SHIFT = 30;
+
+    private final long size;
+    private final int shift;
+    private final long mask;
+    private final AtomicReference<MappedByteBuffer[]> segments = new AtomicReference<>();
+    /**
+     * Count of active accesses multiplied by 2, plus 1 after closing
+     */
+    private final AtomicInteger state = new AtomicInteger();
+
+    /**
+     * Maps whole specified file into memory
+     *
+     * @param path specified exists file
+     * @throws IOException if an error occurred at opening or mapping of file
+     */
+    public MappedFile(Path path) throws IOException {
+        this(path, SEGMENT_SHIFT);
+    }
+
+    /**
+     * Maps whole specified file by segments of <code>1 &lt;&lt; shift</code> bytes
+     *
+     * @param path specified exists file
+     * @param shift binary logarithm of segment size
+     * @throws IOException if an error occurred at opening or mapping of file
+     */
+    MappedFile(Path path, int shift) throws IOException {
+        if(path == null) {
+            throw new NullPointerException("Path is null");
+        }
+
+        this.shift = shift;
+        this.mask = (1L << shift) - 1;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.size = channel.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int)((size + mask) >>> shift)];
+            try {
+                for(int i = 0; i < segments.length; i++) {
+                    long position = (long)i << shift;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(mask + 1, size - position));
+                }
+            } catch(IOException | RuntimeException e) {
+                unmap(segments);
+                throw e;
+            }
+            this.segments.set(segments);
+        }
+    }
+
+    /**
+     * Returns size of file at the moment of mapping
+     *
+     * @return count of mapped bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns byte at specified index
+     *
+     * @param index index of byte in file
+     * @return byte at specified index
+     * @throws IndexOutOfBoundsException if <code>index</code> is negative or not less than {@link #size()}
+     * @throws IllegalStateException if view is closed
+     */
+    public byte get(long index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of file of " + size + " bytes");
+        }
+        MappedByteBuffer[] segments = acquire();
+        try {
+            return segments[(int)(index >>> shift)].get((int)(index & mask));
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Copies bytes starting at specified index into array
+     *
+     * @param index index of the first byte in file
+     * @param array destination array
+     * @param offset index of the first byte in array
+     * @param length max count of bytes
+     * @return count of copied bytes, less than <code>length</code> only if end of file reached
+     * @throws IndexOutOfBoundsException if <code>index</code> is out of file or array bounds are wrong
+     * @throws IllegalStateException if view is closed
+     */
+    public int get(long index, byte[] array, int offset, int length) {
+        if(array == null) {
+            throw new NullPointerException("Array is null");
+        }
+        if(offset < 0 || length < 0 || length > array.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        if(index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of file of " + size + " bytes");
+        }
+
+        MappedByteBuffer[] segments = acquire();
+        try {
+            int count = (int)Math.min(length, size - index);
+            int copied = 0;
+            while(copied < count) {
+                ByteBuffer segment = segments[(int)(index >>> shift)].duplicate();
+                segment.position((int)(index & mask));
+                int part = Math.min(count - copied, segment.remaining());
+                segment.get(array, offset + copied, part);
+                copied += part;
+                index += part;
+            }
+            return copied;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Returns count of segments
+     *
+     * @return count of segments
+     * @throws IllegalStateException if view is closed
+     */
+    public int segmentCount() {
+        MappedByteBuffer[] segments = acquire();
+        try {
+            return segments.length;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Returns read-only buffer of segment with specified index. Segment<br>
+     * with index <code>i</code> starts at <code>i * 2^30</code> byte of file
+     * <p>Buffer must not be used after closing of view</p>
+     *
+     * @param index index of segment
+     * @return read-only buffer of segment
+     * @throws IllegalStateException if view is closed
+     */
+    public ByteBuffer segment(int index) {
+        MappedByteBuffer[] segments = acquire();
+        try {
+            return segments[index].asReadOnlyBuffer();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Closes view. Segments are unmapped immediately if no other thread reads them,<br>
+     * otherwise by the last reader. Calling of this method on closed view does nothing
+     */
+    @Override
+    public void close() {
+        int state = this.state.getAndUpdate(value -> value | 1);
+        if(state == 0) {
+            unmap();
+        }
+    }
+
+    /**
+     * Registers access to segments, which must be finished by {@link #release()}
+     *
+     * @return mapped segments
+     * @throws IllegalStateException if view is closed
+     */
+    private MappedByteBuffer[] acquire() {
+        if((state.addAndGet(2) & 1) != 0) {
+            release();
+            throw new IllegalStateException("Mapped file is closed");
+        }
+        return segments.get();
+    }
+
+    /**
+     * Finishes access to segments. The last access after closing unmaps segments
+     */
+    private void release() {
+        if(state.addAndGet(-2) == 1) {
+            unmap();
+        }
+    }
+
+    private void unmap() {
+        MappedByteBuffer[] segments = this.segments.getAndSet(null);
+        if(segments != null) {
+            unmap(segments);
+        }
+    }
+
+    private static void unmap(MappedByteBuffer[] segments) {
+        for(MappedByteBuffer segment : segments) {
+            if(segment != null) {
+                BufferUtils.free(segment);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.cuba.io.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Region of file mapped into memory, which can be unmapped explicitly
+ * <p>Region owns its buffer: {@link #close()} unmaps only buffer created by<br>
+ *    {@link #map(FileChannel, FileChannel.MapMode, long, long)}, so views from other packages,<br>
+ *    e. g. {@link org.cuba.io.stream.MappedStream}, release memory without access to arbitrary buffers</p>
+ * <p><b>Warning!</b> Buffer returned by {@link #buffer()} must not be used after closing:<br>
+ *    access to unmapped memory crashes virtual machine</p>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public final class MappedRegion implements Closeable {
+    private final FileChannel.MapMode mode;
+    private volatile MappedByteBuffer buffer;
+
+    private MappedRegion(FileChannel.MapMode mode, MappedByteBuffer buffer) {
+        this.mode = mode;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Maps region of file into memory
+     *
+     * @param channel channel of file, may be closed after mapping
+     * @param mode mode of mapping
+     * @param position position of region in file
+     * @param size size of region, not larger than 2 GB
+     * @return mapped region
+     * @throws IOException if an error occurred at mapping file
+     * @see FileChannel#map(FileChannel.MapMode, long, long)
+     */
+    public static MappedRegion map(FileChannel channel, FileChannel.MapMode mode, long position, long size) throws IOException {
+        if(channel == null) {
+            throw new NullPointerException("Channel is null");
+        }
+        if(mode == null) {
+            throw new NullPointerException("Mode is null");
+        }
+        return new MappedRegion(mode, channel.map(mode, position, size));
+    }
+
+    /**
+     * Returns mode of mapping
+     *
+     * @return mode of mapping
+     */
+    public FileChannel.MapMode mode() {
+        return mode;
+    }
+
+    /**
+     * Returns mapped buffer
+     *
+     * @return mapped buffer
+     * @throws ClosedChannelException if region is unmapped
+     */
+    public MappedByteBuffer buffer() throws ClosedChannelException {
+        MappedByteBuffer buffer = this.buffer;
+        if(buffer == null) {
+            throw new ClosedChannelException();
+        }
+        return buffer;
+    }
+
+    /**
+     * Writes changes to storage in {@link FileChannel.MapMode#READ_WRITE} mode and unmaps region.<br>
+     * Calling of this method on closed region does nothing
+     */
+    @Override
+    public void close() {
+        MappedByteBuffer buffer;
+        synchronized(this) {
+            buffer = this.buffer;
+            this.buffer = null;
+        }
+        if(buffer == null) {
+            return;
+        }
+        try {
+            if(mode == FileChannel.MapMode.READ_WRITE) {
+                buffer.force();
+            }
+        } finally {
+            BufferUtils.free(buffer);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.cuba.io.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe pool of byte arrays and direct buffers shared by many threads
+ * <p>Lengths of pooled arrays are powers of two from {@value FileUtils#MIN_BUFFER_SIZE}<br>
+ *    to max length of pool, every power of two is a separate size class. Requests<br>
+ *    larger than max length are served by new arrays, which are not pooled.</p>
+ * <p>Every thread caches one array of each class, so acquire and release by the same<br>
+ *    thread do not touch shared state. Other released arrays are kept in shared<br>
+ *    lock-free queues, bounded by count per class, so pool never holds more than<br>
+ *    <code>classes * (perClass + threads)</code> arrays. Direct buffers are pooled the<br>
+ *    same way if direct tier is enabled</p>
+ * <p>Only arrays and buffers acquired from pool must be released to it</p>
+ * <pre>
+ *     SharedBufferPool pool = SharedBufferPool.getDefault();
+ *     byte[] buffer = pool.acquire(65536);
+ *     try {
+ *         ...
+ *     } finally {
+ *         pool.release(buffer);
+ *     }
+ * </pre>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public class SharedBufferPool implements BufferPool {
+    private static final int MIN_SHIFT = 6;
+    private static final SharedBufferPool DEFAULT = new SharedBufferPool(1 << 20, 16, true);
+
+    private final int maxLength;
+    private final int perClass;
+    private final boolean direct;
+    private final Tier<byte[]> arrays;
+    private final Tier<ByteBuffer> buffers;
+    private final ThreadLocal<Object[][]> caches;
+
+    /**
+     * Creates pool
+     *
+     * @param maxLength max length of pooled array, rounded up to power of two
+     * @param perClass max count of arrays of one size class in shared queue
+     * @param direct true if direct buffers must be pooled
+     * @throws IllegalArgumentException if <code>maxLength</code> is less than {@value FileUtils#MIN_BUFFER_SIZE}<br>
+     *         or greater than 2^30, or if <code>perClass</code> is negative
+     */
+    public SharedBufferPool(int maxLength, int perClass, boolean direct) {
+        if(maxLength < FileUtils.MIN_BUFFER_SIZE || maxLength > 1 << 30) {
+            throw new IllegalArgumentException("Max length must be between " + FileUtils.MIN_BUFFER_SIZE + " and 2^30");
+        }
+        if(perClass < 0) {
+            throw new IllegalArgumentException("Count per class must not be negative");
+        }
+
+        this.maxLength = 1 << (32 - Integer.numberOfLeadingZeros(maxLength - 1));
+        this.perClass = perClass;
+        this.direct = direct;
+        int classes = sizeClass(this.maxLength) + 1;
+        this.arrays = new Tier<>(classes);
+        this.buffers = new Tier<>(classes);
+        this.caches = ThreadLocal.withInitial(() -> new Object[2][classes]);
+    }
+
+    /**
+     * Returns pool shared by io module: arrays up to 1 MB, 16 arrays<br>
+     * per size class and enabled direct tier
+     *
+     * @return default pool
+     */
+    public static SharedBufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns max length of pooled array
+     *
+     * @return max length of pooled array
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    @Override
+    public byte[] acquire(int length) {
+        if(length < 0) {
+            throw new IllegalArgumentException("Length must not be negative");
+        }
+        if(length > maxLength) {
+            return new byte[length];
+        }
+
+        int index = sizeClass(length);
+        Object[] cache = caches.get()[0];
+        byte[] array = (byte[])cache[index];
+        if(array != null) {
+            cache[index] = null;
+            return array;
+        }
+        array = arrays.poll(index);
+        return array == null ? new byte[classLength(index)] : array;
+    }
+
+    @Override
+    public void release(byte[] buffer) {
+        if(buffer == null || !pooled(buffer.length)) {
+            return;
+        }
+
+        int index = sizeClass(buffer.length);
+        Object[] cache = caches.get()[0];
+        if(cache[index] == null) {
+            cache[index] = buffer;
+        } else {
+            arrays.offer(index, buffer, perClass);
+        }
+    }
+
+    /**
+     * Returns direct buffer of at least specified capacity. Position of<br>
+     * buffer is 0, limit is equal to <code>length</code>
+     *
+     * @param length min capacity of buffer
+     * @return direct buffer
+     * @throws IllegalArgumentException if <code>length</code> is negative
+     */
+    public ByteBuffer acquireDirect(int length) {
+        if(length < 0) {
+            throw new IllegalArgumentException("Length must not be negative");
+        }
+        if(!direct || length > maxLength) {
+            return ByteBuffer.allocateDirect(length);
+        }
+
+        int index = sizeClass(length);
+        Object[] cache = caches.get()[1];
+        ByteBuffer buffer = (ByteBuffer)cache[index];
+        if(buffer != null) {
+            cache[index] = null;
+        } else {
+            buffer = buffers.poll(index);
+            if(buffer == null) {
+                buffer = ByteBuffer.allocateDirect(classLength(index));
+            }
+        }
+        buffer.clear().limit(length);
+        return buffer;
+    }
+
+    /**
+     * Returns direct buffer to pool. Buffer must not be used by caller after this call
+     *
+     * @param buffer buffer acquired by {@link #acquireDirect(int)}
+     */
+    public void releaseDirect(ByteBuffer buffer) {
+        if(!direct || buffer == null || !buffer.isDirect() || !pooled(buffer.capacity())) {
+            return;
+        }
+
+        int index = sizeClass(buffer.capacity());
+        Object[] cache = caches.get()[1];
+        if(cache[index] == null) {
+            cache[index] = buffer;
+        } else {
+            buffers.offer(index, buffer, perClass);
+        }
+    }
+
+    private boolean pooled(int length) {
+        return length >= FileUtils.MIN_BUFFER_SIZE && length <= maxLength && Integer.bitCount(length) == 1;
+    }
+
+    private static int sizeClass(int length) {
+        return length <= FileUtils.MIN_BUFFER_SIZE ? 0 : 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_SHIFT;
+    }
+
+    private static int classLength(int index) {
+        return 1 << (index + MIN_SHIFT);
+    }
+
+    /**
+     * Shared bounded queues of one kind of buffers, one queue per size class
+     */
+    private static final class Tier<T> {
+        private final Queue<T>[] queues;
+        private final AtomicInteger[] counts;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Tier(int classes) {
+            this.queues = new Queue[classes];
+            this.counts = new AtomicInteger[classes];
+            for(int i = 0; i < classes; i++) {
+                queues[i] = new ConcurrentLinkedQueue<>();
+                counts[i] = new AtomicInteger();
+            }
+        }
+
+        private T poll(int index) {
+            T buffer = queues[index].poll();
+            if(buffer != null) {
+                counts[index].decrementAndGet();
+            }
+            return buffer;
+        }
+
+        private void offer(int index, T buffer, int limit) {
+            AtomicInteger count = counts[index];
+            int current;
+            do {
+                current = count.get();
+                if(current >= limit) {
+                    return;
+                }
+            } while(!count.compareAndSet(current, current + 1));
+            queues[index].offer(buffer);
+        }
+    }
+}
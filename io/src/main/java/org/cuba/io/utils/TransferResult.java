@@ -0,0 +1,97 @@
+package org.cuba.io.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistics of one transfer made by {@link TransferUtils}
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public final class TransferResult {
+    /**
+     * Way of moving bytes from source to target
+     */
+    public enum Method {
+        /**
+         * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},<br>
+         * bytes are moved by operating system (sendfile) without copying into user space
+         */
+        TRANSFER_TO,
+        /**
+         * {@link java.nio.channels.FileChannel#transferFrom(java.nio.channels.ReadableByteChannel, long, long)},<br>
+         * bytes are moved by operating system when source allows it
+         */
+        TRANSFER_FROM,
+        /**
+         * Loop of reads and writes through direct buffer, so channels do not copy bytes into heap
+         */
+        DIRECT_BUFFER,
+        /**
+         * Loop of reads and writes through heap array
+         */
+        HEAP_BUFFER
+    }
+
+    private final Method method;
+    private final long bytes;
+    private final long nanos;
+
+    TransferResult(Method method, long bytes, long nanos) {
+        this.method = method;
+        this.bytes = bytes;
+        this.nanos = nanos;
+    }
+
+    /**
+     * Returns way, which was used to move most of bytes
+     *
+     * @return method of transfer
+     */
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns count of transferred bytes
+     *
+     * @return count of bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns duration of transfer in nanoseconds
+     *
+     * @return duration of transfer
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Returns duration of transfer in specified units
+     *
+     * @param unit time unit
+     * @return duration of transfer
+     */
+    public long getDuration(TimeUnit unit) {
+        return unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns average speed of transfer
+     *
+     * @return bytes per second, 0 if duration is less than one nanosecond
+     */
+    public double getBytesPerSecond() {
+        return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferResult [method=" + method + ", bytes=" + bytes + ", nanos=" + nanos + "]";
+    }
+}
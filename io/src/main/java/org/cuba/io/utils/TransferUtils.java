@@ -0,0 +1,206 @@
+package org.cuba.io.utils;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copies all bytes from source to target by the fastest way available for the pair
+ * <p>If source is a file channel, bytes are moved by {@link FileChannel#transferTo(long, long, WritableByteChannel)},<br>
+ *    if only target is a file channel, by {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}.<br>
+ *    Operating system moves bytes between descriptors (sendfile, splice) without copying<br>
+ *    them into user space when it can. Other channels are copied through a pooled direct<br>
+ *    buffer, streams through a pooled array. Remaining bytes, which fast path did not<br>
+ *    move (e. g. file grew during transfer), are always copied by loop, so the whole source<br>
+ *    is transferred in any case</p>
+ * <p>Sources and targets must be blocking: non-blocking channel may read or write<br>
+ *    nothing, so copying loop would spin. Non-blocking {@link SelectableChannel}s are rejected.<br>
+ *    Positions of file channels are moved by count of transferred bytes. Channels and<br>
+ *    streams are not closed</p>
+ * <pre>
+ *     TransferResult result = TransferUtils.transfer(upload, Paths.get("storage", name));
+ *     log.info("Stored " + result.getBytes() + " bytes in " + result.getDuration(TimeUnit.MILLISECONDS) + " ms");
+ * </pre>
+ *
+ * @author Kirill Bogatikov
+ * @version 1.0
+ * @since 1.1
+ */
+public class TransferUtils {
+    /**
+     * Max count of bytes moved by one call of transfer methods of {@link FileChannel},<br>
+     * so large transfers do not hold resources of operating system for a long time
+     */
+    private static final long TRANSFER_CHUNK = 8L << 20;
+
+    /**
+     * Copies file to another file. Target is created or truncated if no options specified
+     *
+     * @param source existing file
+     * @param target target file
+     * @param options options of opening target file, {@link StandardOpenOption#WRITE} is always added
+     * @return statistics of transfer
+     * @throws IOException if an error occurred at opening, reading or writing of files
+     */
+    public static TransferResult transfer(Path source, Path target, OpenOption... options) throws IOException {
+        if(source == null) {
+            throw new NullPointerException("Source is null");
+        }
+        if(target == null) {
+            throw new NullPointerException("Target is null");
+        }
+
+        OpenOption[] targetOptions;
+        if(options.length == 0) {
+            targetOptions = new OpenOption[] { StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING };
+        } else {
+            targetOptions = new OpenOption[options.length + 1];
+            System.arraycopy(options, 0, targetOptions, 0, options.length);
+            targetOptions[options.length] = StandardOpenOption.WRITE;
+        }
+        try(FileChannel input = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel output = FileChannel.open(target, targetOptions)) {
+            return transfer(input, output);
+        }
+    }
+
+    /**
+     * Copies all remaining bytes of channel to another channel
+     *
+     * @param source blocking source channel
+     * @param target blocking target channel
+     * @return statistics of transfer
+     * @throws IOException if an error occurred at reading or writing
+     * @throws IllegalBlockingModeException if source or target is {@link SelectableChannel} in non-blocking mode
+     */
+    public static TransferResult transfer(ReadableByteChannel source, WritableByteChannel target) throws IOException {
+        if(source == null) {
+            throw new NullPointerException("Source is null");
+        }
+        if(target == null) {
+            throw new NullPointerException("Target is null");
+        }
+        if(!isBlocking(source) || !isBlocking(target)) {
+            throw new IllegalBlockingModeException();
+        }
+
+        long start = System.nanoTime();
+        TransferResult.Method method = TransferResult.Method.DIRECT_BUFFER;
+        long count = 0;
+        if(source instanceof FileChannel) {
+            count = transferTo((FileChannel)source, target);
+            method = TransferResult.Method.TRANSFER_TO;
+        } else if(target instanceof FileChannel) {
+            count = transferFrom(source, (FileChannel)target);
+            method = TransferResult.Method.TRANSFER_FROM;
+        }
+        if(count == 0) {
+            method = TransferResult.Method.DIRECT_BUFFER;
+        }
+        count += copy(source, target);
+        return new TransferResult(method, count, System.nanoTime() - start);
+    }
+
+    /**
+     * Copies all bytes of stream to another stream. File streams are transferred<br>
+     * through their channels
+     *
+     * @param source source stream
+     * @param target target stream
+     * @return statistics of transfer
+     * @throws IOException if an error occurred at reading or writing
+     */
+    public static TransferResult transfer(InputStream source, OutputStream target) throws IOException {
+        if(source == null) {
+            throw new NullPointerException("Source is null");
+        }
+        if(target == null) {
+            throw new NullPointerException("Target is null");
+        }
+
+        if(source.getClass() == FileInputStream.class) {
+            FileChannel channel = ((FileInputStream)source).getChannel();
+            WritableByteChannel output = target.getClass() == FileOutputStream.class ? ((FileOutputStream)target).getChannel() : Channels.newChannel(target);
+            return transfer(channel, output);
+        }
+
+        long start = System.nanoTime();
+        long count = 0;
+        SharedBufferPool pool = SharedBufferPool.getDefault();
+        byte[] buffer = pool.acquire(FileUtils.MAX_BUFFER_SIZE);
+        try {
+            int read;
+            while((read = source.read(buffer)) != -1) {
+                target.write(buffer, 0, read);
+                count += read;
+            }
+        } finally {
+            pool.release(buffer);
+        }
+        return new TransferResult(TransferResult.Method.HEAP_BUFFER, count, System.nanoTime() - start);
+    }
+
+    private static boolean isBlocking(Object channel) {
+        return !(channel instanceof SelectableChannel) || ((SelectableChannel)channel).isBlocking();
+    }
+
+    private static long transferTo(FileChannel source, WritableByteChannel target) throws IOException {
+        long position = source.position();
+        long size = source.size();
+        long count = 0;
+        while(position + count < size) {
+            long transferred = source.transferTo(position + count, Math.min(size - position - count, TRANSFER_CHUNK), target);
+            if(transferred <= 0) {
+                break;
+            }
+            count += transferred;
+        }
+        source.position(position + count);
+        return count;
+    }
+
+    private static long transferFrom(ReadableByteChannel source, FileChannel target) throws IOException {
+        long position = target.position();
+        if(position > target.size()) {
+            return 0;
+        }
+
+        long count = 0;
+        long transferred;
+        while((transferred = target.transferFrom(source, position + count, TRANSFER_CHUNK)) > 0) {
+            count += transferred;
+        }
+        target.position(position + count);
+        return count;
+    }
+
+    private static long copy(ReadableByteChannel source, WritableByteChannel target) throws IOException {
+        SharedBufferPool pool = SharedBufferPool.getDefault();
+        ByteBuffer buffer = pool.acquireDirect(FileUtils.MAX_BUFFER_SIZE);
+        try {
+            long count = 0;
+            while(source.read(buffer) != -1) {
+                buffer.flip();
+                while(buffer.hasRemaining()) {
+                    count += target.write(buffer);
+                }
+                buffer.clear();
+            }
+            return count;
+        } finally {
+            pool.releaseDirect(buffer);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.cuba.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.junit.Test;
+
+public class BulkTypeDetectorTest {
+    private static final byte[] SEVEN_ZIP = { 0x37, 0x7A, (byte)0xBC, (byte)0xAF, 0x27, 0x1C, 0x00 };
+    private static final byte[] PNG = { (byte)0x89, 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A, 0x00 };
+
+    private static Path tree() throws IOException {
+        Path root = Files.createTempDirectory("cuba");
+        Path nested = Files.createDirectories(root.resolve("a").resolve("b"));
+        for(int i = 0; i < 20; i++) {
+            Files.write(root.resolve(i + ".7z"), SEVEN_ZIP);
+            Files.write(nested.resolve(i + ".png"), PNG);
+        }
+        return root;
+    }
+
+    @Test(timeout = 5000L)
+    public void directoryTree() throws IOException {
+        Path root = tree();
+        TypeDetector detector = new TypeDetector();
+        
+        Map<Path, String> results = new HashMap<>();
+        new BulkTypeDetector(detector).parallelism(4).ordered(false).detect(root, result -> {
+            assertNull(result.getError());
+            results.put(result.getPath(), result.getExtension());
+        });
+        
+        assertEquals(40, results.size());
+        for(Map.Entry<Path, String> entry : results.entrySet()) {
+            String name = entry.getKey().getFileName().toString();
+            assertEquals(name.substring(name.indexOf('.') + 1), entry.getValue());
+        }
+    }
+
+    @Test(timeout = 5000L)
+    public void orderedStream() throws IOException {
+        Path root = tree();
+        List<Path> paths;
+        try(Stream<Path> walk = Files.walk(root)) {
+            paths = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        
+        List<Path> detected = new ArrayList<>();
+        try(Stream<BulkTypeDetector.Result> results = new BulkTypeDetector().parallelism(3).window(5).detect(paths.stream())) {
+            results.forEach(result -> detected.add(result.getPath()));
+        }
+        assertEquals(paths, detected);
+    }
+
+    @Test(timeout = 5000L)
+    public void missingFile() {
+        List<BulkTypeDetector.Result> results = new ArrayList<>();
+        new BulkTypeDetector().detect(Stream.of(Paths.get("missing-" + System.nanoTime())), results::add);
+        
+        assertEquals(1, results.size());
+        assertNotNull(results.get(0).getError());
+        assertNull(results.get(0).getExtension());
+    }
+
+    @Test(timeout = 5000L)
+    public void unreadableDirectory() throws IOException {
+        Path root = tree();
+        Path denied = root.resolve("denied");
+        Iterator<Path> walk = Files.walk(root).filter(Files::isRegularFile).iterator();
+        Iterator<Path> paths = new Iterator<Path>() {
+            private boolean failed;
+
+            @Override
+            public boolean hasNext() {
+                if(!failed) {
+                    failed = true;
+                    throw new UncheckedIOException(new AccessDeniedException(denied.toString()));
+                }
+                return walk.hasNext();
+            }
+
+            @Override
+            public Path next() {
+                return walk.next();
+            }
+        };
+        
+        List<BulkTypeDetector.Result> results = new ArrayList<>();
+        new BulkTypeDetector().parallelism(2).detect(StreamSupport.stream(Spliterators.spliteratorUnknownSize(paths, 0), false), results::add);
+        
+        assertEquals(41, results.size());
+        assertEquals(denied, results.get(0).getPath());
+        assertTrue(results.get(0).getError() instanceof AccessDeniedException);
+        for(BulkTypeDetector.Result result : results.subList(1, results.size())) {
+            assertNull(result.getError());
+        }
+    }
+}
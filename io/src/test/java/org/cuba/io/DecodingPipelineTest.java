@@ -0,0 +1,216 @@
+package org.cuba.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.cuba.io.utils.FileUtils;
+import org.junit.Test;
+
+public class DecodingPipelineTest {
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try(GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(data);
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        return FileUtils.readAllBytes(stream, FileUtils.DEFAULT_BUFFER_SIZE);
+    }
+
+    @Test(timeout = 5000L)
+    public void gzip() throws IOException {
+        byte[] data = random(100000);
+        DecodingPipeline pipeline = new DecodingPipeline();
+        
+        try(DecodingPipeline.Decoded decoded = pipeline.decode(new ByteArrayInputStream(gzip(gzip(data))))) {
+            assertEquals(Arrays.asList("gz", "gz"), decoded.getEncodings());
+            assertTrue(decoded.isDecoded());
+            assertArrayEquals(data, readAll(decoded.getStream()));
+        }
+        
+        pipeline.setMaxDepth(1);
+        try(DecodingPipeline.Decoded decoded = pipeline.decode(new ByteArrayInputStream(gzip(gzip(data))))) {
+            assertEquals(Arrays.asList("gz"), decoded.getEncodings());
+            assertEquals("gz", decoded.getExtension());
+            assertArrayEquals(gzip(data), readAll(decoded.getStream()));
+        }
+    }
+
+    private static byte[] zip(byte[] data) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try(ZipOutputStream zip = new ZipOutputStream(output)) {
+            zip.putNextEntry(new ZipEntry("root.xml"));
+            zip.write(data);
+            zip.closeEntry();
+        }
+        return output.toByteArray();
+    }
+
+    @Test(timeout = 5000L)
+    public void sourceStaysOpen() throws IOException {
+        byte[] data = random(1000);
+        boolean[] closed = new boolean[1];
+        InputStream source = new ByteArrayInputStream(gzip(data)) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        DecodingPipeline.Decoded decoded = new DecodingPipeline().decode(source);
+        assertArrayEquals(data, readAll(decoded.getStream()));
+        decoded.close();
+        assertFalse(closed[0]);
+    }
+
+    @Test(timeout = 5000L)
+    public void zip() throws IOException {
+        byte[] data = "<?xml version=\"1.0\"?><root/>".getBytes("UTF-8");
+        try(DecodingPipeline.Decoded decoded = new DecodingPipeline().decode(new ByteArrayInputStream(zip(data)))) {
+            assertEquals(Arrays.asList("zip"), decoded.getEncodings());
+            assertArrayEquals(data, readAll(decoded.getStream()));
+        }
+    }
+
+    @Test(timeout = 5000L)
+    public void zipAmongManyTypesOfSameSignature() throws IOException {
+        byte[] data = random(1000);
+        try {
+            for(int i = 0; i < 30; i++) {
+                TypeDetector.register("pk" + i, new Signature(new byte[] { 0x50, 0x4B, 0x03, 0x04 }));
+            }
+            try(DecodingPipeline.Decoded decoded = new DecodingPipeline().decode(new ByteArrayInputStream(zip(data)))) {
+                assertEquals(Arrays.asList("zip"), decoded.getEncodings());
+                assertArrayEquals(data, readAll(decoded.getStream()));
+            }
+        } finally {
+            TypeDetector.reset();
+        }
+    }
+
+    @Test(timeout = 5000L)
+    public void detectedOnly() throws IOException {
+        byte[] bzip2 = { 0x42, 0x5A, 0x68, 0x39, 0x31, 0x41, 0x59, 0x26, 0x53, 0x59 };
+        DecodingPipeline pipeline = new DecodingPipeline();
+        assertFalse(pipeline.isDecodable("bz2"));
+        try(DecodingPipeline.Decoded decoded = pipeline.decode(new ByteArrayInputStream(bzip2))) {
+            assertFalse(decoded.isDecoded());
+            assertEquals("bz2", decoded.getExtension());
+            assertArrayEquals(bzip2, readAll(decoded.getStream()));
+        }
+        
+        byte[] zstd = { 0x28, (byte)0xB5, 0x2F, (byte)0xFD, 0x00 };
+        try(DecodingPipeline.Decoded decoded = pipeline.decode(new ByteArrayInputStream(zstd))) {
+            assertEquals("zst", decoded.getExtension());
+        }
+        
+        byte[] plain = random(1000);
+        try(DecodingPipeline.Decoded decoded = pipeline.decode(new ByteArrayInputStream(plain))) {
+            assertFalse(decoded.isDecoded());
+            assertArrayEquals(plain, readAll(decoded.getStream()));
+        }
+        try(DecodingPipeline.Decoded decoded = pipeline.decode(new ByteArrayInputStream(new byte[0]))) {
+            assertNull(decoded.getExtension());
+            assertEquals(-1, decoded.getStream().read());
+        }
+    }
+
+    @Test(timeout = 5000L)
+    public void equalMatchesResolvedByRegistration() throws IOException {
+        byte[] data = zip(random(1000));
+        DecodingPipeline pipeline = new DecodingPipeline();
+        pipeline.unregister("zip");
+        pipeline.register("xpi", 512, (input, bufferSize) -> new ByteArrayInputStream(new byte[0]));
+        pipeline.register("xps", 512, (input, bufferSize) -> new ByteArrayInputStream(new byte[0]));
+        for(int i = 0; i < 10; i++) {
+            try(DecodingPipeline.Decoded decoded = pipeline.decode(new ByteArrayInputStream(data))) {
+                assertEquals(Arrays.asList("xpi"), decoded.getEncodings());
+            }
+        }
+        
+        pipeline.register("xpi", 512, (input, bufferSize) -> new ByteArrayInputStream(new byte[0]));
+        try(DecodingPipeline.Decoded decoded = pipeline.decode(new ByteArrayInputStream(data))) {
+            assertEquals(Arrays.asList("xps"), decoded.getEncodings());
+        }
+    }
+
+    @Test(timeout = 5000L)
+    public void layersClosedOnFailure() throws IOException {
+        byte[] gzipped = gzip(random(1000));
+        byte[] encoded = new byte[gzipped.length + 3];
+        encoded[0] = 0x42;
+        encoded[1] = 0x5A;
+        encoded[2] = 0x68;
+        System.arraycopy(gzipped, 0, encoded, 3, gzipped.length);
+        
+        boolean[] closed = new boolean[1];
+        DecodingPipeline pipeline = new DecodingPipeline();
+        pipeline.register("bz2", 1024, (input, bufferSize) -> {
+            input.skip(3);
+            return new FilterInputStream(input) {
+                @Override
+                public void close() throws IOException {
+                    closed[0] = true;
+                    super.close();
+                }
+            };
+        });
+        pipeline.register("gz", 1024, (input, bufferSize) -> {
+            throw new IOException("Damaged");
+        });
+        try {
+            pipeline.decode(new ByteArrayInputStream(encoded));
+            fail();
+        } catch(IOException ioe) {
+            assertEquals("Damaged", ioe.getMessage());
+        }
+        assertTrue(closed[0]);
+    }
+
+    @Test(timeout = 5000L)
+    public void pluggableDecoder() throws IOException {
+        byte[] data = random(5000);
+        byte[] gzipped = gzip(data);
+        byte[] encoded = new byte[gzipped.length + 3];
+        encoded[0] = 0x42;
+        encoded[1] = 0x5A;
+        encoded[2] = 0x68;
+        System.arraycopy(gzipped, 0, encoded, 3, gzipped.length);
+        
+        DecodingPipeline pipeline = new DecodingPipeline();
+        pipeline.register("bz2", 1024, (input, bufferSize) -> {
+            assertEquals(1024, bufferSize);
+            assertEquals(3, input.skip(3));
+            return input;
+        });
+        try(DecodingPipeline.Decoded decoded = pipeline.decode(new ByteArrayInputStream(encoded))) {
+            assertEquals(Arrays.asList("bz2", "gz"), decoded.getEncodings());
+            assertArrayEquals(data, readAll(decoded.getStream()));
+        }
+        assertTrue(pipeline.unregister("bz2"));
+        assertFalse(pipeline.unregister("bz2"));
+    }
+}
@@ -0,0 +1,62 @@
+package org.cuba.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class DetectionCacheTest {
+    private static final byte[] SEVEN_ZIP = { 0x37, 0x7A, (byte)0xBC, (byte)0xAF, 0x27, 0x1C, 0x00 };
+    private static final byte[] PNG = { (byte)0x89, 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A, 0x00, 0x00 };
+
+    private static Path file(byte[] content) throws IOException {
+        Path path = Files.createTempFile("cuba", ".bin");
+        path.toFile().deleteOnExit();
+        Files.write(path, content);
+        return path;
+    }
+
+    @Test(timeout = 500L, expected = IllegalArgumentException.class)
+    public void capacityZero() {
+        new DetectionCache(0);
+    }
+
+    @Test(timeout = 1000L)
+    public void hitAndInvalidation() throws IOException {
+        Path path = file(SEVEN_ZIP);
+        DetectionCache cache = new DetectionCache(16);
+        TypeDetector detector = new TypeDetector();
+        detector.setCache(cache);
+        
+        assertEquals("7z", detector.extension(path));
+        assertEquals("7z", detector.extension(path.toFile()));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        
+        Files.write(path, PNG);
+        assertEquals("png", detector.extension(path));
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test(timeout = 1000L)
+    public void eviction() throws IOException {
+        Path first = file(SEVEN_ZIP);
+        Path second = file(PNG);
+        DetectionCache cache = new DetectionCache(1);
+        TypeDetector detector = new TypeDetector();
+        detector.setCache(cache);
+        
+        detector.extension(first);
+        detector.extension(second);
+        detector.extension(first);
+        
+        assertEquals(0, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(2, cache.getEvictions());
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,113 @@
+package org.cuba.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class DetectionMetricsTest {
+
+    @Test(timeout = 1000L)
+    public void histogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        for(long value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000.5, histogram.getMean(), 0.001);
+        for(double percentile : new double[] { 1, 50, 90, 99, 99.9 }) {
+            long expected = (long)(percentile * 1000);
+            long actual = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + actual, actual >= expected && actual <= expected + expected / 32 + 1);
+        }
+        assertEquals(100000, histogram.getValueAtPercentile(100));
+        
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    @Test(timeout = 1000L)
+    public void buckets() {
+        for(long value = 0; value < 1 << 20; value += 7) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(LatencyHistogram.highest(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.highest(index - 1) < value);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highest(LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test(timeout = 5000L)
+    public void detector() throws IOException {
+        TypeDetector detector = new TypeDetector();
+        DetectionMetrics metrics = new DetectionMetrics();
+        detector.setMetrics(metrics);
+        
+        byte[] sevenZip = { 0x37, 0x7A, (byte)0xBC, (byte)0xAF, 0x27, 0x1C, 0x00 };
+        assertEquals("7z", detector.extension(sevenZip));
+        assertEquals("7z", detector.extension(sevenZip));
+        assertNull(detector.extension(new byte[] { (byte)0xAB, (byte)0xCD, 0x13 }));
+        
+        Path path = Files.createTempFile("cuba", ".7z");
+        path.toFile().deleteOnExit();
+        Files.write(path, sevenZip);
+        assertEquals("7z", detector.extension(path));
+        
+        assertEquals(4, metrics.getDetections());
+        assertEquals(3, (long)metrics.getHitsByExtension().get("7z"));
+        assertEquals(1, metrics.getReads());
+        assertEquals(sevenZip.length * 3 + 3, metrics.getBytesExamined());
+        assertEquals(1, metrics.getUnknown());
+        assertEquals(0.25, metrics.getUnknownRate(), 0.0);
+        assertEquals(Collections.singletonMap("7z", 3L), metrics.getHitsByExtension());
+        assertTrue(metrics.getMatchLatencyMax() >= metrics.getMatchLatencyP50());
+        assertTrue(metrics.getReadLatencyMax() > 0);
+        
+        metrics.reset();
+        assertEquals(0, metrics.getDetections());
+        assertTrue(metrics.getHitsByExtension().isEmpty());
+        detector.setMetrics(null);
+        detector.extension(sevenZip);
+        assertEquals(0, metrics.getDetections());
+    }
+
+    @Test(timeout = 5000L)
+    public void jmx() throws JMException {
+        DetectionMetrics metrics = new DetectionMetrics();
+        ObjectName name = metrics.register("test \"metrics\"");
+        try {
+            TypeDetector detector = new TypeDetector();
+            detector.setMetrics(metrics);
+            detector.extension(new byte[] { (byte)0xAB, (byte)0xCD, 0x13 });
+            
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertTrue(server.isRegistered(name));
+            assertEquals(1L, server.getAttribute(name, "Detections"));
+            assertEquals(1.0, (Double)server.getAttribute(name, "UnknownRate"), 0.0);
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertEquals(0L, server.getAttribute(name, "Detections"));
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        metrics.unregister();
+    }
+}
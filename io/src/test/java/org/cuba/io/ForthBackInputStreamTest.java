@@ -0,0 +1,276 @@
+package org.cuba.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cuba.io.utils.BufferPool;
+
+import org.junit.Test;
+
+public class ForthBackInputStreamTest {
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for(int i = 0; i < length; i++) {
+            data[i] = (byte)(i * 7);
+        }
+        return data;
+    }
+
+    private static int readFully(InputStream stream, byte[] array) throws IOException {
+        int read = 0, count;
+        while(read < array.length && (count = stream.read(array, read, array.length - read)) > 0) {
+            read += count;
+        }
+        return read;
+    }
+
+    private static long skipFully(InputStream stream, long n) throws IOException {
+        long skipped = 0, count;
+        while(skipped < n && (count = stream.skip(n - skipped)) > 0) {
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Test(timeout = 500L)
+    public void bulkReadAfterReset() throws IOException {
+        byte[] data = data(10000);
+        ForthBackInputStream stream = new ForthBackInputStream(new ByteArrayInputStream(data));
+        stream.mark(100);
+        
+        byte[] header = new byte[60];
+        assertEquals(60, stream.read(header, 0, 60));
+        assertArrayEquals(Arrays.copyOf(data, 60), header);
+        stream.reset();
+        
+        byte[] all = new byte[data.length];
+        int read = 0, count;
+        while((count = stream.read(all, read, all.length - read)) > 0) {
+            read += count;
+        }
+        assertEquals(data.length, read);
+        assertArrayEquals(data, all);
+        assertEquals(-1, stream.read());
+    }
+
+    @Test(timeout = 500L)
+    public void singleByteReadIsUnsigned() throws IOException {
+        ForthBackInputStream stream = new ForthBackInputStream(new ByteArrayInputStream(new byte[] { -1, 1 }));
+        stream.mark(2);
+        assertEquals(255, stream.read());
+        stream.reset();
+        assertEquals(255, stream.read());
+        assertEquals(1, stream.read());
+        assertEquals(-1, stream.read());
+    }
+
+    @Test(timeout = 500L)
+    public void skipAndAvailable() throws IOException {
+        byte[] data = data(1000);
+        ForthBackInputStream stream = new ForthBackInputStream(new ByteArrayInputStream(data));
+        stream.mark(50);
+        
+        assertEquals(50, stream.skip(80));
+        assertEquals(950, stream.available());
+        stream.reset();
+        assertEquals(1000, stream.available());
+        assertEquals(10, stream.skip(10));
+        assertEquals(data[10] & 0xFF, stream.read());
+        assertEquals(39, stream.skip(100));
+        assertEquals(100, stream.skip(100));
+        assertEquals(data[150] & 0xFF, stream.read());
+    }
+
+    @Test(timeout = 500L)
+    public void suppliedBufferIsReused() throws IOException {
+        byte[] data = data(100);
+        byte[] buffer = new byte[16];
+        ForthBackInputStream stream = new ForthBackInputStream(new ByteArrayInputStream(data), buffer);
+        
+        for(int i = 0; i < 5; i++) {
+            stream.mark(16);
+            byte[] part = new byte[16];
+            assertEquals(16, stream.read(part, 0, 16));
+            assertArrayEquals(part, buffer);
+            stream.reset();
+            assertEquals(16, stream.skip(16));
+        }
+    }
+
+    @Test(timeout = 500L)
+    public void pooledBuffer() throws IOException {
+        List<byte[]> released = new ArrayList<>();
+        BufferPool pool = new BufferPool() {
+            @Override
+            public byte[] acquire(int length) {
+                return new byte[length];
+            }
+            
+            @Override
+            public void release(byte[] buffer) {
+                released.add(buffer);
+            }
+        };
+        
+        ForthBackInputStream stream = new ForthBackInputStream(new ByteArrayInputStream(data(100)), pool);
+        stream.mark(8);
+        assertEquals(8, stream.skip(8));
+        stream.reset();
+        stream.mark(4);
+        assertEquals(4, stream.skip(4));
+        assertTrue(released.isEmpty());
+        stream.mark(32);
+        assertEquals(32, readFully(stream, new byte[32]));
+        assertEquals(1, released.size());
+        stream.close();
+        assertEquals(2, released.size());
+        assertEquals(32, released.get(1).length);
+    }
+
+    @Test(timeout = 500L)
+    public void perThreadPool() {
+        BufferPool pool = BufferPool.perThread(1024);
+        byte[] buffer = pool.acquire(100);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(50));
+        assertNotSame(buffer, pool.acquire(50));
+        
+        byte[] large = pool.acquire(2048);
+        pool.release(large);
+        assertNotSame(large, pool.acquire(2048));
+    }
+
+    @Test(timeout = 2000L)
+    public void spillToDisk() throws IOException {
+        byte[] data = data(300000);
+        Path directory = Files.createTempDirectory("cuba");
+        directory.toFile().deleteOnExit();
+        
+        ForthBackInputStream stream = new ForthBackInputStream(new ByteArrayInputStream(data), 1000, directory);
+        stream.mark(data.length);
+        byte[] first = new byte[data.length];
+        int read = 0, count;
+        while((count = stream.read(first, read, Math.min(777, first.length - read))) > 0) {
+            read += count;
+        }
+        assertArrayEquals(data, first);
+        
+        stream.reset();
+        assertEquals(data[0] & 0xFF, stream.read());
+        assertEquals(199999, stream.skip(199999));
+        byte[] tail = new byte[100000];
+        read = 0;
+        while((count = stream.read(tail, read, tail.length - read)) > 0) {
+            read += count;
+        }
+        assertArrayEquals(Arrays.copyOfRange(data, 200000, 300000), tail);
+        assertEquals(-1, stream.read());
+        
+        stream.close();
+        assertEquals(0, directory.toFile().list().length);
+    }
+
+    @Test(timeout = 500L)
+    public void nestedMarks() throws IOException {
+        byte[] data = data(1000);
+        ForthBackInputStream stream = new ForthBackInputStream(new ByteArrayInputStream(data));
+        
+        ForthBackInputStream.Mark outer = stream.newMark(500);
+        assertEquals(100, stream.skip(100));
+        ForthBackInputStream.Mark inner = stream.newMark(100);
+        stream.mark(10);
+        assertEquals(data[100] & 0xFF, stream.read());
+        stream.clear();
+        assertEquals(50, stream.skip(50));
+        
+        stream.reset(inner);
+        assertEquals(data[100] & 0xFF, stream.read());
+        inner.close();
+        assertFalse(inner.isValid());
+        
+        stream.reset(outer);
+        byte[] part = new byte[200];
+        assertEquals(200, readFully(stream, part));
+        assertArrayEquals(Arrays.copyOf(data, 200), part);
+        outer.close();
+        
+        assertEquals(data[200] & 0xFF, stream.read());
+        try {
+            stream.reset(outer);
+            fail();
+        } catch(IllegalStateException ise) {
+            // released mark
+        }
+    }
+
+    @Test(timeout = 500L)
+    public void markIsInvalidatedAfterLimit() throws IOException {
+        ForthBackInputStream stream = new ForthBackInputStream(new ByteArrayInputStream(data(100)));
+        ForthBackInputStream.Mark mark = stream.newMark(10);
+        assertEquals(10, stream.skip(20));
+        assertTrue(mark.isValid());
+        assertEquals(10, stream.skip(10));
+        assertFalse(mark.isValid());
+    }
+
+    @Test(timeout = 500L)
+    public void peek() throws IOException {
+        byte[] data = data(100);
+        ForthBackInputStream stream = new ForthBackInputStream(new ByteArrayInputStream(data));
+        
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 20), stream.peek(10, 10));
+        assertEquals(data[0] & 0xFF, stream.read());
+        
+        ForthBackInputStream.Mark mark = stream.newMark(50);
+        assertEquals(30, skipFully(stream, 30));
+        assertArrayEquals(Arrays.copyOfRange(data, 1, 41), stream.peek(-30, 40));
+        assertArrayEquals(Arrays.copyOfRange(data, 90, 100), stream.peek(59, 20));
+        assertEquals(-1, stream.peek(70, new byte[1], 0, 1));
+        mark.close();
+        
+        byte[] rest = new byte[69];
+        assertEquals(69, readFully(stream, rest));
+        assertArrayEquals(Arrays.copyOfRange(data, 31, 100), rest);
+        assertEquals(-1, stream.read());
+    }
+
+    @Test(timeout = 500L)
+    public void peekNothing() throws IOException {
+        ForthBackInputStream stream = new ForthBackInputStream(new ByteArrayInputStream(data(10)));
+        assertEquals(0, stream.peek(40, new byte[4], 0, 0));
+        assertEquals(0, stream.peek(5, new byte[4], 4, 0));
+        assertEquals(0, stream.peek(40, 0).length);
+        assertEquals(0, stream.read());
+    }
+
+    @Test(timeout = 500L)
+    public void closeKeepsOriginal() throws IOException {
+        boolean[] closed = new boolean[1];
+        InputStream original = new ByteArrayInputStream(new byte[] { 1, 2, 3 }) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        ForthBackInputStream stream = new ForthBackInputStream(original);
+        assertEquals(1, stream.read());
+        stream.close();
+        assertFalse(closed[0]);
+        assertEquals(2, original.read());
+    }
+}
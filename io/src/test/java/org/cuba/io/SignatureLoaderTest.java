@@ -0,0 +1,112 @@
+package org.cuba.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SignatureLoaderTest {
+
+    private static Map<String, List<Signature>> json() throws IOException {
+        try(InputStream stream = SignatureLoader.class.getClassLoader().getResourceAsStream(SignatureLoader.JSON_RESOURCE)) {
+            return SignatureLoader.readJson(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void assertSameTypes(Map<String, List<Signature>> expected, Map<String, List<Signature>> actual) {
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+        for(String extension : expected.keySet()) {
+            List<Signature> expectedSignatures = expected.get(extension);
+            List<Signature> actualSignatures = actual.get(extension);
+            assertEquals(expectedSignatures.size(), actualSignatures.size());
+            for(int i = 0; i < expectedSignatures.size(); i++) {
+                assertEquals(expectedSignatures.get(i), actualSignatures.get(i));
+            }
+        }
+    }
+
+    @Test(timeout = 1000L)
+    public void binaryRoundTrip() throws IOException {
+        Map<String, List<Signature>> types = json();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SignatureLoader.writeBinary(types, output);
+
+        assertSameTypes(types, SignatureLoader.readBinary(new ByteArrayInputStream(output.toByteArray())));
+    }
+
+    @Test(timeout = 1000L)
+    public void compiledResourceMatchesJson() throws IOException {
+        assertSameTypes(json(), SignatureLoader.load());
+    }
+
+    @Test(timeout = 500L, expected = IOException.class)
+    public void binaryWrongMagic() throws IOException {
+        SignatureLoader.readBinary(new ByteArrayInputStream(new byte[] { 0x7B, 0x0A, 0x20, 0x20, 0x20, 0x20 }));
+    }
+
+    @Test(timeout = 500L)
+    public void malformedJson() {
+        String[] malformed = {
+            "",
+            "{\"ext\": null}",
+            "{\"ext\": [null]}",
+            "{\"ext\": [{\"offset\": 1}]}",
+            "{\"ext\": [{\"offset\": \"one\", \"bytes\": [\"0x01\"]}]}",
+            "{\"ext\": [{\"bytes\": [\"0x01\"], \"mask\": [null]}]}",
+            "{\"ext\": [{\"bytes\": [\"0x01\"], \"mask\": []}]}",
+            "{\"ext\": [[\"0xZZ\"]]}"
+        };
+        for(String json : malformed) {
+            try {
+                SignatureLoader.readJson(new StringReader(json));
+                fail("Accepted " + json);
+            } catch(IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(timeout = 500L, expected = IOException.class)
+    public void binaryNegativeCount() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(SignatureLoader.MAGIC);
+        output.writeShort(SignatureLoader.VERSION);
+        output.writeInt(-1);
+        output.writeInt(0);
+        output.writeInt(0);
+
+        SignatureLoader.readBinary(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test(timeout = 500L, expected = IOException.class)
+    public void binaryTruncated() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SignatureLoader.writeBinary(json(), output);
+        byte[] data = output.toByteArray();
+
+        SignatureLoader.readBinary(new ByteArrayInputStream(data, 0, data.length / 2));
+    }
+
+    @Test(timeout = 1000L, expected = IOException.class)
+    public void tooManySignatures() throws IOException {
+        Signature signature = new Signature(0, new byte[] { 1 }, null);
+        List<Signature> signatures = Collections.nCopies(0x10000, signature);
+
+        SignatureLoader.writeBinary(Collections.singletonMap("ext", signatures), new ByteArrayOutputStream());
+    }
+}
@@ -0,0 +1,80 @@
+package org.cuba.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SignatureMatcherTest {
+
+    @Test(timeout = 5000L)
+    public void sameAsScalar() {
+        Random random = new Random(23);
+        for(int n = 0; n < 2000; n++) {
+            int length = 1 + random.nextInt(40);
+            byte[] bytes = new byte[length];
+            byte[] mask = new byte[length];
+            random.nextBytes(bytes);
+            for(int i = 0; i < length; i++) {
+                mask[i] = random.nextInt(4) == 0 ? (byte)random.nextInt(256) : -1;
+            }
+            SignatureMatcher matcher = new SignatureMatcher(new Signature(random.nextInt(4), bytes, mask));
+            assertEquals(length, matcher.length());
+            
+            byte[] array = new byte[length + 16];
+            random.nextBytes(array);
+            int offset = random.nextInt(16);
+            int copied = random.nextInt(length + 1);
+            System.arraycopy(bytes, 0, array, offset, copied);
+            
+            ByteBuffer heap = ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer direct = ByteBuffer.allocateDirect(array.length);
+            direct.put(array).clear();
+            int expected = matcher.mismatchScalar(array, offset);
+            assertEquals(expected, matcher.mismatch(array, offset));
+            assertEquals(expected, matcher.mismatch(heap, offset));
+            assertEquals(expected, matcher.mismatch(SignatureMatcher.littleEndian(direct), offset));
+            assertEquals(expected, matcher.mismatchScalar(direct.order(ByteOrder.BIG_ENDIAN), offset));
+            if(copied == length) {
+                assertEquals(-1, expected);
+            } else if(expected >= 0) {
+                assertTrue(expected >= copied);
+            }
+        }
+    }
+
+    @Test(timeout = 1000L)
+    public void firstMismatch() {
+        byte[] bytes = new byte[20];
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte)(i * 13);
+        }
+        byte[] mask = new byte[20];
+        Arrays.fill(mask, (byte)-1);
+        mask[3] = 0;
+        mask[11] = (byte)0xF0;
+        SignatureMatcher matcher = new SignatureMatcher(new Signature(0, bytes, mask));
+        
+        for(int i = 0; i < bytes.length; i++) {
+            byte[] data = bytes.clone();
+            data[i] ^= 0x01;
+            int expected = i == 3 || i == 11 ? -1 : i;
+            assertEquals(expected, matcher.mismatch(data, 0));
+            data[i] ^= (byte)0x81;
+            assertEquals(i == 3 ? -1 : i, matcher.mismatch(data, 0));
+        }
+    }
+
+    @Test(timeout = 1000L)
+    public void littleEndianWords() {
+        byte[] array = new byte[] { 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, (byte)0x88, 0x09 };
+        ByteBuffer buffer = ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(buffer.getLong(0), SignatureMatcher.getLong(array, 0));
+        assertEquals(buffer.getLong(1), SignatureMatcher.getLong(array, 1));
+    }
+}
@@ -0,0 +1,105 @@
+package org.cuba.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TypeDetectorRegistryTest {
+    private static final byte[] CUSTOM = { 0x43, 0x55, 0x42, 0x41, 0x01, 0x02 };
+
+    @After
+    public void reset() {
+        TypeDetector.reset();
+    }
+
+    @Test(timeout = 500L, expected = IllegalArgumentException.class)
+    public void registerEmpty() {
+        TypeDetector.register("cuba");
+    }
+
+    @Test(timeout = 500L, expected = NullPointerException.class)
+    public void registerNullExtension() {
+        TypeDetector.register(null, new Signature(CUSTOM));
+    }
+
+    @Test(timeout = 1000L)
+    public void registerAndUnregister() {
+        TypeDetector detector = new TypeDetector();
+        int types = TypeDetector.getKnownTypes().size();
+        assertNotEquals("cuba", detector.extension(CUSTOM));
+        
+        TypeDetector.register("cuba", new Signature(CUSTOM));
+        assertEquals("cuba", detector.extension(CUSTOM));
+        assertEquals(types + 1, TypeDetector.getKnownTypes().size());
+        
+        assertTrue(TypeDetector.unregister("cuba"));
+        assertFalse(TypeDetector.unregister("cuba"));
+        assertNotEquals("cuba", detector.extension(CUSTOM));
+        assertEquals(types, TypeDetector.getKnownTypes().size());
+    }
+
+    @Test(timeout = 1000L)
+    public void reloadConfig() throws IOException {
+        TypeDetector detector = new TypeDetector();
+        TypeDetector.register("old", new Signature(CUSTOM));
+        
+        String config = "{\"cuba\": [[0x43, 0x55, 0x42, 0x41, null, 0x02]], \"conf\": [{\"offset\": 2, \"bytes\": [0x7E, 0x7E]}]}";
+        TypeDetector.reload(new StringReader(config));
+        TypeDetector.reload(new StringReader(config));
+        
+        assertFalse(TypeDetector.getKnownTypes().containsKey("old"));
+        assertEquals("cuba", detector.extension(CUSTOM));
+        assertEquals("conf", detector.extension(new byte[] { 0x00, 0x00, 0x7E, 0x7E }));
+    }
+
+    @Test(timeout = 1000L)
+    public void registryInvalidatesCache() throws IOException {
+        Path path = Files.createTempFile("cuba", ".bin");
+        path.toFile().deleteOnExit();
+        Files.write(path, CUSTOM);
+        
+        TypeDetector detector = new TypeDetector();
+        detector.setCache(new DetectionCache(4));
+        assertNotEquals("cuba", detector.extension(path));
+        
+        TypeDetector.register("cuba", new Signature(CUSTOM));
+        assertEquals("cuba", detector.extension(path));
+    }
+
+    @Test(timeout = 5000L)
+    public void concurrentDetections() throws InterruptedException {
+        TypeDetector detector = new TypeDetector();
+        byte[] sevenZip = { 0x37, 0x7A, (byte)0xBC, (byte)0xAF, 0x27, 0x1C };
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        
+        Thread reader = new Thread(() -> {
+            while(running.get()) {
+                String extension = detector.extension(sevenZip);
+                if(!"7z".equals(extension)) {
+                    failure.set(extension);
+                }
+            }
+        });
+        reader.start();
+        for(int i = 0; i < 50; i++) {
+            TypeDetector.register("cuba" + i, new Signature(CUSTOM));
+        }
+        running.set(false);
+        reader.join();
+        
+        assertEquals(null, failure.get());
+        assertEquals("cuba49", detector.extension(CUSTOM));
+    }
+}
@@ -0,0 +1,425 @@
+package org.cuba.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.cuba.io.utils.ExecutorUtils;
+
+import org.junit.Test;
+
+public class TypeDetectorTest {
+
+    private static String linearScan(byte[] array) {
+        int lastMatchWeight = 0;
+        String lastMatchExtension = null;
+        for(String extension : TypeDetector.getKnownTypes().keySet()) {
+            for(Signature signature : TypeDetector.getKnownTypes().get(extension)) {
+                int weight = signature.isExtended() ? completeMatch(signature, array) : prefixMatch(signature, array);
+                if(weight >= lastMatchWeight) {
+                    lastMatchWeight = weight;
+                    lastMatchExtension = extension;
+                }
+            }
+        }
+        return lastMatchWeight == 0 ? null : lastMatchExtension;
+    }
+
+    private static int prefixMatch(Signature signature, byte[] array) {
+        byte[] bytes = signature.getBytes();
+        int length = Math.min(bytes.length, array.length);
+        for(int i = 0; i < length; i++) {
+            if(bytes[i] != array[i]) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private static int completeMatch(Signature signature, byte[] array) {
+        if(signature.span() > array.length) {
+            return -1;
+        }
+        byte[] bytes = signature.getBytes();
+        byte[] mask = signature.getMask();
+        for(int i = 0; i < bytes.length; i++) {
+            int part = mask == null ? 0xFF : mask[i];
+            if((bytes[i] & part) != (array[signature.getOffset() + i] & part)) {
+                return -1;
+            }
+        }
+        return signature.weight();
+    }
+
+    private static byte[] toArray(Signature signature, int length, Random random) {
+        byte[] array = new byte[length];
+        random.nextBytes(array);
+        byte[] bytes = signature.getBytes();
+        byte[] mask = signature.getMask();
+        for(int i = 0; i < bytes.length && signature.getOffset() + i < length; i++) {
+            int part = mask == null ? 0xFF : mask[i] & 0xFF;
+            int index = signature.getOffset() + i;
+            array[index] = (byte)((array[index] & ~part) | (bytes[i] & part));
+        }
+        return array;
+    }
+
+    private static byte[] riff(String type) {
+        byte[] array = { 0x52, 0x49, 0x46, 0x46, 0x24, 0x10, 0x00, 0x00, 0, 0, 0, 0, 0x00 };
+        for(int i = 0; i < 4; i++) {
+            array[8 + i] = (byte)type.charAt(i);
+        }
+        return array;
+    }
+
+    @Test(timeout = 500L, expected = NullPointerException.class)
+    public void extensionNull() {
+        new TypeDetector().extension((byte[])null);
+    }
+
+    @Test(timeout = 500L)
+    public void sevenZip() {
+        assertEquals("7z", new TypeDetector().extension(new byte[] { 0x37, 0x7A, (byte)0xBC, (byte)0xAF, 0x27, 0x1C, 0x00 }));
+    }
+
+    @Test(timeout = 500L)
+    public void unknownData() {
+        TypeDetector detector = new TypeDetector();
+        assertNull(detector.extension(new byte[] { (byte)0xAB, (byte)0xCD, 0x13 }));
+        assertNull(detector.extension(new byte[0]));
+        assertNull(detector.extension(ByteBuffer.allocateDirect(0)));
+        assertNull(detector.mimeType(new byte[0]));
+    }
+
+    @Test(timeout = 1000L)
+    public void sameAsLinearScanForSignatures() {
+        TypeDetector detector = new TypeDetector();
+        Random random = new Random(42);
+        for(List<Signature> signatures : TypeDetector.getKnownTypes().values()) {
+            for(Signature signature : signatures) {
+                for(int length = 0; length <= signature.span() + 2; length++) {
+                    byte[] array = toArray(signature, length, random);
+                    assertEquals(linearScan(array), detector.extension(array));
+                }
+            }
+        }
+    }
+
+    @Test(timeout = 500L)
+    public void riffSubtypes() {
+        TypeDetector detector = new TypeDetector();
+        assertEquals("wav", detector.extension(riff("WAVE")));
+        assertEquals("avi", detector.extension(riff("AVI ")));
+        assertEquals("webp", detector.extension(riff("WEBP")));
+    }
+
+    @Test(timeout = 500L)
+    public void tarAtOffset() {
+        byte[] array = new byte[512];
+        array[0] = 0x61;
+        System.arraycopy(new byte[] { 0x75, 0x73, 0x74, 0x61, 0x72 }, 0, array, 257, 5);
+        assertEquals("tar", new TypeDetector().extension(array));
+    }
+
+    private static byte[] isoMedia(int boxSize, String brand) {
+        byte[] array = new byte[boxSize];
+        array[3] = (byte)boxSize;
+        System.arraycopy(("ftyp" + brand).getBytes(StandardCharsets.US_ASCII), 0, array, 4, 8);
+        return array;
+    }
+
+    @Test(timeout = 500L)
+    public void isoMediaAtOffset() {
+        TypeDetector detector = new TypeDetector();
+        String[] brands = { "isom", "mp42", "qt  ", "M4A ", "3gp4", "3gp5" };
+        String[] extensions = { "mp4", "mp4", "mov", "m4a", "3gp", "3gp5" };
+        for(int boxSize : new int[] { 0x14, 0x18, 0x1C, 0x20 }) {
+            for(int i = 0; i < brands.length; i++) {
+                assertEquals(boxSize + " " + brands[i], extensions[i], detector.extension(isoMedia(boxSize, brands[i])));
+            }
+        }
+    }
+
+    @Test(timeout = 500L, expected = IllegalArgumentException.class)
+    public void signatureWithoutSignificantBytes() {
+        new Signature(4, new byte[2], new byte[2]);
+    }
+
+    @Test(timeout = 1000L)
+    public void sameAsLinearScanForRandomData() {
+        TypeDetector detector = new TypeDetector();
+        Random random = new Random(42);
+        for(int i = 0; i < 2000; i++) {
+            byte[] array = new byte[random.nextInt(16)];
+            random.nextBytes(array);
+            assertEquals(linearScan(array), detector.extension(array));
+        }
+    }
+
+    @Test(timeout = 500L)
+    public void signatureLengths() {
+        int min = Integer.MAX_VALUE, max = 0;
+        for(List<Signature> signatures : TypeDetector.getKnownTypes().values()) {
+            for(Signature signature : signatures) {
+                min = Math.min(min, signature.span());
+                max = Math.max(max, signature.span());
+            }
+        }
+        
+        TypeDetector detector = new TypeDetector();
+        assertEquals(min, detector.minSignatureLength());
+        assertEquals(max, detector.maxSignatureLength());
+    }
+
+    @Test(timeout = 500L, expected = IndexOutOfBoundsException.class)
+    public void extensionRangeOutOfBounds() {
+        new TypeDetector().extension(new byte[4], 2, 3);
+    }
+
+    @Test(timeout = 500L)
+    public void extensionRange() {
+        byte[] array = { 0x00, 0x37, 0x7A, (byte)0xBC, (byte)0xAF, 0x27, 0x1C, 0x00 };
+        assertEquals("7z", new TypeDetector().extension(array, 1, 6));
+    }
+
+    @Test(timeout = 1000L)
+    public void fileWithReusableHeader() throws IOException {
+        File file = File.createTempFile("cuba", ".bin");
+        file.deleteOnExit();
+        try(FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write(new byte[] { 0x37, 0x7A, (byte)0xBC, (byte)0xAF, 0x27, 0x1C });
+        }
+        
+        TypeDetector detector = new TypeDetector();
+        byte[] header = new byte[detector.maxSignatureLength() * 2];
+        Arrays.fill(header, (byte)0xFF);
+        assertEquals("7z", detector.extension(file, header));
+        assertEquals("7z", detector.extension(file, header));
+        assertEquals("7z", detector.extension(file));
+    }
+
+    @Test(timeout = 500L)
+    public void directBuffer() {
+        byte[] array = riff("WAVE");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(array.length + 3);
+        buffer.put(new byte[3]).put(array).flip().position(3);
+        
+        assertEquals("wav", new TypeDetector().extension(buffer));
+        assertEquals(3, buffer.position());
+    }
+
+    @Test(timeout = 1000L)
+    public void pathAndChannel() throws IOException {
+        Path path = Files.createTempFile("cuba", ".bin");
+        path.toFile().deleteOnExit();
+        byte[] tar = new byte[300];
+        System.arraycopy(new byte[] { 0x75, 0x73, 0x74, 0x61, 0x72 }, 0, tar, 257, 5);
+        Files.write(path, tar);
+        
+        TypeDetector detector = new TypeDetector();
+        assertEquals("tar", detector.extension(path));
+        
+        ByteBuffer header = ByteBuffer.allocate(1024);
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.position(100);
+            assertEquals("tar", detector.extension(channel, header));
+            assertEquals(100, channel.position());
+            assertEquals(detector.maxSignatureLength(), header.remaining());
+        }
+    }
+
+    @Test(timeout = 500L)
+    public void candidates() {
+        List<TypeDetector.Candidate> candidates = new TypeDetector().detect(riff("WAVE"));
+        
+        assertEquals("wav", candidates.get(0).getExtension());
+        assertEquals(8, candidates.get(0).getMatchLength());
+        assertEquals(8.0 / 9, candidates.get(0).getConfidence(), 1e-9);
+        for(int i = 1; i < candidates.size(); i++) {
+            assertTrue(candidates.get(i - 1).getMatchLength() >= candidates.get(i).getMatchLength());
+            assertNotEquals("wav", candidates.get(i).getExtension());
+        }
+    }
+
+    @Test(timeout = 1000L)
+    public void candidatesIncludeExtension() {
+        TypeDetector detector = new TypeDetector();
+        Random random = new Random(7);
+        for(List<Signature> signatures : TypeDetector.getKnownTypes().values()) {
+            for(Signature signature : signatures) {
+                byte[] array = toArray(signature, signature.span() + 1, random);
+                assertTrue(detector.detect(array, 0, array.length, 3).size() <= 3);
+                
+                List<TypeDetector.Candidate> candidates = detector.detect(array, 0, array.length, Integer.MAX_VALUE);
+                String extension = detector.extension(array);
+                assertTrue(extension, candidates.stream().anyMatch(candidate -> candidate.getExtension().equals(extension)));
+                for(int i = 1; i < candidates.size(); i++) {
+                    if(candidates.get(i - 1).getConfidence() < candidates.get(i).getConfidence()) {
+                        fail("Confidence increases: " + candidates);
+                    }
+                }
+            }
+        }
+        
+        byte[] mp4 = isoMedia(0x20, "isom");
+        assertEquals("mp4", detector.detect(mp4, 0, mp4.length, 1).get(0).getExtension());
+        byte[] xml = "<?xml version=\"1.0\"?><root/>".getBytes(StandardCharsets.US_ASCII);
+        assertEquals("xml", detector.detect(xml, 0, xml.length, 1).get(0).getExtension());
+        
+        byte[] unknown = new byte[] { (byte)0xAB, (byte)0xCD, 0x13 };
+        assertNull(detector.extension(unknown));
+        assertTrue(detector.detect(unknown, 0, unknown.length, 3).isEmpty());
+    }
+
+    @Test(timeout = 500L)
+    public void noCandidates() {
+        assertTrue(new TypeDetector().detect(new byte[0]).isEmpty());
+    }
+    
+    @Test(timeout = 5000L)
+    public void asynchronous() throws Exception {
+        Path path = Files.createTempFile("cuba", ".bin");
+        path.toFile().deleteOnExit();
+        Files.write(path, riff("WAVE"));
+        
+        TypeDetector detector = new TypeDetector();
+        assertEquals("wav", detector.extensionAsync(path).get());
+        
+        ExecutorService executor = ExecutorUtils.newVirtualThreadExecutor("cuba-test");
+        try {
+            detector.setExecutor(executor);
+            assertEquals(detector.mimeType("wav"), detector.mimeTypeAsync(path).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test(timeout = 5000L)
+    public void asynchronousMissingFile() throws Exception {
+        Path path = Files.createTempFile("cuba", ".bin");
+        Files.delete(path);
+        
+        try {
+            new TypeDetector().extensionAsync(path).get();
+            fail();
+        } catch(ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof IOException);
+        }
+    }
+
+    @Test(timeout = 5000L)
+    public void asynchronousShutdownExecutor() throws Exception {
+        Path path = Files.createTempFile("cuba", ".bin");
+        path.toFile().deleteOnExit();
+        Files.write(path, riff("WAVE"));
+        
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        TypeDetector detector = new TypeDetector();
+        detector.setExecutor(executor);
+        
+        try {
+            detector.extensionAsync(path).get();
+            fail();
+        } catch(ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test(timeout = 1000L)
+    public void textFormats() throws IOException {
+        TypeDetector detector = new TypeDetector();
+        TypeDetector.Detection detection = detector.classify("{\"name\": \"Привет\"}".getBytes(StandardCharsets.UTF_8));
+        assertEquals("json", detection.getExtension());
+        assertEquals(StandardCharsets.UTF_8, detection.getCharset());
+        assertTrue(detection.isText());
+        
+        assertEquals("csv", detector.classify("id,name,price\n1,tea,2.5\n2,cof".getBytes(StandardCharsets.US_ASCII)).getExtension());
+        assertEquals("html", detector.classify("  <!DOCTYPE html><html></html>".getBytes(StandardCharsets.US_ASCII)).getExtension());
+        assertEquals("xml", detector.classify("<root><item/></root>".getBytes(StandardCharsets.US_ASCII)).getExtension());
+        assertEquals("txt", detector.classify("MZ is not always an executable".getBytes(StandardCharsets.US_ASCII)).getExtension());
+        assertEquals("rtf", detector.classify("{\\rtf1\\ansi text}".getBytes(StandardCharsets.US_ASCII)).getExtension());
+        
+        detection = detector.classify("caf\u00e9 au lait".getBytes(StandardCharsets.ISO_8859_1));
+        assertEquals("txt", detection.getExtension());
+        assertEquals(StandardCharsets.ISO_8859_1, detection.getCharset());
+        
+        Path path = Files.createTempFile("cuba", ".txt");
+        path.toFile().deleteOnExit();
+        byte[] json = new byte[10000];
+        Arrays.fill(json, (byte)' ');
+        json[0] = '[';
+        json[json.length - 1] = ']';
+        Files.write(path, json);
+        assertEquals("json", detector.classify(path).getExtension());
+        assertEquals("json", detector.classify(new ForthBackInputStream(new ByteArrayInputStream(json))).getExtension());
+    }
+
+    @Test(timeout = 1000L)
+    public void streamMarkIsKept() throws IOException {
+        TypeDetector detector = new TypeDetector();
+        byte[] data = new byte[] { 0x00, 0x01, 0x37, 0x7A, (byte)0xBC, (byte)0xAF, 0x27, 0x1C, 0x00, 0x04 };
+        ForthBackInputStream stream = new ForthBackInputStream(new ByteArrayInputStream(data));
+        stream.mark(data.length);
+        assertEquals(0x00, stream.read());
+        assertEquals(0x01, stream.read());
+        assertEquals("7z", detector.extension(stream, new byte[64]));
+        assertEquals(0x37, stream.read());
+        stream.reset();
+        assertEquals(0x00, stream.read());
+    }
+
+    @Test(timeout = 1000L)
+    public void byteOrderMarks() {
+        TypeDetector detector = new TypeDetector();
+        String text = "<note>\u4f60\u597d</note>";
+        String[] charsets = { "UTF-8", "UTF-16LE", "UTF-16BE", "UTF-32LE", "UTF-32BE" };
+        int[] marks = { 3, 2, 2, 4, 4 };
+        for(int i = 0; i < charsets.length; i++) {
+            Charset charset = Charset.forName(charsets[i]);
+            byte[] data = ("\ufeff" + text).getBytes(charset);
+            TypeDetector.Detection detection = detector.classify(data);
+            assertEquals(charsets[i], charset, detection.getCharset());
+            assertEquals(charsets[i], marks[i], detection.getMarkLength());
+            assertEquals(charsets[i], "xml", detection.getExtension());
+        }
+    }
+
+    @Test(timeout = 1000L)
+    public void binaryIsNotText() {
+        TypeDetector detector = new TypeDetector();
+        TypeDetector.Detection detection = detector.classify(new byte[] { 0x37, 0x7A, (byte)0xBC, (byte)0xAF, 0x27, 0x1C, 0x00 });
+        assertEquals("7z", detection.getExtension());
+        assertEquals(null, detection.getCharset());
+        assertEquals(null, detector.classify(new byte[] { 0x01, 0x02, 0x03, 0x04, 0x05 }).getCharset());
+        assertEquals(null, detector.classify(new byte[0]).getCharset());
+        
+        byte[] invalid = "valid ascii prefix, then ".getBytes(StandardCharsets.US_ASCII);
+        invalid = Arrays.copyOf(invalid, invalid.length + 2);
+        invalid[invalid.length - 2] = (byte)0xC3;
+        invalid[invalid.length - 1] = 'x';
+        assertEquals(StandardCharsets.UTF_8, detector.classify(invalid, 0, invalid.length - 1).getCharset());
+        assertEquals(StandardCharsets.ISO_8859_1, detector.classify(invalid).getCharset());
+    }
+}
@@ -0,0 +1,231 @@
+package org.cuba.io.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class StreamTest {
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static Path file() throws IOException {
+        Path path = Files.createTempFile("cuba", ".bin");
+        path.toFile().deleteOnExit();
+        return path;
+    }
+
+    private static byte[] readAll(Stream stream, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0, count;
+        while(read < length && (count = stream.read(bytes, read, length - read)) != -1) {
+            read += count;
+        }
+        return Arrays.copyOf(bytes, read);
+    }
+
+    @Test(timeout = 1000L)
+    public void fileChannelStream() throws IOException {
+        byte[] data = random(10000);
+        Path path = file();
+        try(FileChannelStream stream = new FileChannelStream(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            assertEquals(data.length, stream.write(data));
+            assertEquals(data.length, stream.size());
+            stream.position(100);
+            assertArrayEquals(Arrays.copyOfRange(data, 100, data.length), readAll(stream, data.length));
+            assertEquals(-1, stream.read(new byte[1]));
+            assertEquals(0, stream.read(new byte[0]));
+        }
+        assertArrayEquals(data, Files.readAllBytes(path));
+    }
+
+    @Test(timeout = 1000L)
+    public void byteBufferStream() throws IOException {
+        for(boolean direct : new boolean[] { false, true }) {
+            ByteBufferStream stream = new ByteBufferStream(16, direct);
+            byte[] data = random(1000);
+            assertEquals(-1, stream.read(new byte[1]));
+            assertEquals(500, stream.write(data, 0, 500));
+            assertArrayEquals(Arrays.copyOf(data, 300), readAll(stream, 300));
+            assertEquals(500, stream.write(data, 500, 500));
+            assertEquals(700, stream.size());
+            assertArrayEquals(Arrays.copyOfRange(data, 300, 1000), stream.toByteArray());
+            assertArrayEquals(Arrays.copyOfRange(data, 300, 1000), readAll(stream, 1000));
+            assertEquals(direct, stream.isDirect());
+        }
+    }
+
+    @Test(timeout = 1000L)
+    public void viewSurvivesGrowth() throws IOException {
+        ByteBufferStream stream = new ByteBufferStream(8, true);
+        byte[] data = { 1, 2, 3, 4, 5, 6, 7, 8 };
+        stream.write(data);
+        ByteBuffer view = stream.asReadOnlyBuffer();
+        stream.write(new byte[1000]);
+        
+        byte[] read = new byte[data.length];
+        view.get(read);
+        assertArrayEquals(data, read);
+    }
+
+    @Test(timeout = 1000L)
+    public void byteBufferStreamLimits() throws IOException {
+        ByteBufferStream stream = new ByteBufferStream(4, 10, false);
+        assertEquals(8, stream.write(new byte[8]));
+        assertEquals(2, stream.write(new byte[8]));
+        assertEquals(-1, stream.write(new byte[8]));
+        assertEquals(5, stream.read(new byte[5]));
+        assertEquals(5, stream.write(new byte[8]));
+        
+        ByteBuffer content = ByteBuffer.wrap(new byte[] { 1, 2, 3 }).asReadOnlyBuffer();
+        ByteBufferStream wrapped = new ByteBufferStream(content);
+        assertEquals(1, wrapped.read(new byte[1]));
+        assertEquals(2, wrapped.write(new byte[] { 4, 5 }));
+        assertArrayEquals(new byte[] { 2, 3, 4, 5 }, wrapped.toByteArray());
+    }
+
+    @Test(timeout = 1000L)
+    public void mappedStream() throws IOException {
+        byte[] data = random(5000);
+        Path path = file();
+        try(MappedStream stream = new MappedStream(path, FileChannel.MapMode.READ_WRITE, 0, 4000)) {
+            assertEquals(3000, stream.write(data, 0, 3000));
+            assertEquals(1000, stream.write(data, 3000, 2000));
+            assertEquals(-1, stream.write(data, 0, 1));
+        }
+        assertArrayEquals(Arrays.copyOf(data, 4000), Files.readAllBytes(path));
+        
+        try(MappedStream stream = new MappedStream(path)) {
+            assertEquals(4000, stream.size());
+            stream.position(3000);
+            assertArrayEquals(Arrays.copyOfRange(data, 3000, 4000), readAll(stream, 5000));
+            assertEquals(-1, stream.read(new byte[1]));
+        }
+    }
+
+    @Test(timeout = 1000L)
+    public void bufferOverloads() throws IOException {
+        byte[] data = random(3000);
+        Path path = file();
+        Stream[] streams = { new FileChannelStream(path, StandardOpenOption.READ, StandardOpenOption.WRITE),
+                new ByteBufferStream(16, true), new ArrayStream(8192, 700) };
+        for(Stream stream : streams) {
+            for(boolean direct : new boolean[] { false, true }) {
+                ByteBuffer source = direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+                source.put(data).flip();
+                while(source.hasRemaining()) {
+                    stream.write(source);
+                }
+                if(stream instanceof FileChannelStream) {
+                    ((FileChannelStream)stream).position(0);
+                }
+
+                ByteBuffer target = direct ? ByteBuffer.allocateDirect(data.length + 10) : ByteBuffer.allocate(data.length + 10);
+                int count;
+                while((count = stream.read(target)) > 0) {
+                    continue;
+                }
+                assertEquals(-1, count);
+                assertEquals(data.length, target.position());
+                byte[] bytes = new byte[data.length];
+                target.flip();
+                target.get(bytes);
+                assertArrayEquals(data, bytes);
+                if(stream instanceof FileChannelStream) {
+                    ((FileChannelStream)stream).position(0);
+                }
+            }
+        }
+        ((FileChannelStream)streams[0]).close();
+    }
+
+    @Test(timeout = 1000L)
+    public void scatterGather() throws IOException {
+        byte[] data = random(1000);
+        Path path = file();
+        try(MappedStream mapped = new MappedStream(path, FileChannel.MapMode.READ_WRITE, 0, 1000);
+                FileChannelStream channel = new FileChannelStream(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Stream[] streams = { new ByteBufferStream(), new ArrayStream(1000, 1000), channel, mapped };
+            for(Stream stream : streams) {
+                ByteBuffer[] sources = { ByteBuffer.wrap(data, 0, 100), ByteBuffer.allocate(0),
+                        ByteBuffer.allocateDirect(900).put(data, 100, 900) };
+                sources[2].flip();
+                assertEquals(1000, stream.write(sources));
+                if(stream == channel) {
+                    channel.position(0);
+                } else if(stream == mapped) {
+                    mapped.position(0);
+                }
+
+                ByteBuffer[] targets = { ByteBuffer.allocateDirect(400), ByteBuffer.allocate(700) };
+                assertEquals(1000, stream.read(targets));
+                assertEquals(-1, stream.read(new ByteBuffer[] { ByteBuffer.allocate(1) }));
+                byte[] bytes = new byte[1000];
+                targets[0].flip();
+                targets[1].flip();
+                targets[0].get(bytes, 0, 400);
+                targets[1].get(bytes, 400, 600);
+                assertArrayEquals(data, bytes);
+            }
+        }
+    }
+
+    /**
+     * Stream implementing only array methods, so default buffer methods are tested
+     */
+    private static final class ArrayStream extends Stream {
+        private final byte[] storage;
+        private final int chunk;
+        private int written;
+        private int read;
+
+        private ArrayStream(int capacity, int chunk) {
+            this.storage = new byte[capacity];
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int write(byte[] bytes) {
+            return write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public int write(byte[] bytes, int offset, int limit) {
+            checkBounds(bytes, offset, limit);
+            int count = Math.min(limit, Math.min(storage.length - written, chunk));
+            System.arraycopy(bytes, offset, storage, written, count);
+            written += count;
+            return count;
+        }
+
+        @Override
+        public int read(byte[] bytes) {
+            return read(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int limit) {
+            checkBounds(bytes, offset, limit);
+            if(read == written) {
+                return -1;
+            }
+            int count = Math.min(limit, written - read);
+            System.arraycopy(storage, read, bytes, offset, count);
+            read += count;
+            return count;
+        }
+    }
+}
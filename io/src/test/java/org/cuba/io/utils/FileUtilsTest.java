@@ -0,0 +1,120 @@
+package org.cuba.io.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FileUtilsTest {
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static Path file(byte[] data) throws IOException {
+        Path path = Files.createTempFile("cuba", ".bin");
+        path.toFile().deleteOnExit();
+        Files.write(path, data);
+        return path;
+    }
+
+    @Test(timeout = 1000L)
+    public void readFile() throws IOException {
+        byte[] data = random(100000);
+        Path path = file(data);
+        
+        assertArrayEquals(data, FileUtils.readAllBytes(path));
+        assertArrayEquals(data, FileUtils.readAllBytes(path.toFile()));
+        assertArrayEquals(data, FileUtils.readAllBytes(path.toFile(), FileUtils.MIN_BUFFER_SIZE));
+        assertEquals(0, FileUtils.readAllBytes(file(new byte[0])).length);
+    }
+
+    @Test(timeout = 1000L)
+    public void readStream() throws IOException {
+        byte[] data = random(10000);
+        assertArrayEquals(data, FileUtils.readAllBytes(new ByteArrayInputStream(data), FileUtils.MIN_BUFFER_SIZE));
+        assertArrayEquals(Arrays.copyOf(data, 64), FileUtils.readAllBytes(new ByteArrayInputStream(data, 0, 64), 64));
+        
+        File file = file(data).toFile();
+        try(FileInputStream stream = new FileInputStream(file)) {
+            assertEquals(100, stream.skip(100));
+            assertArrayEquals(Arrays.copyOfRange(data, 100, data.length), FileUtils.readAllBytes(stream, FileUtils.DEFAULT_BUFFER_SIZE));
+            assertEquals(-1, stream.read());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooSmallBuffer() throws IOException {
+        FileUtils.readAllBytes(new ByteArrayInputStream(new byte[0]), FileUtils.MIN_BUFFER_SIZE - 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLargeBuffer() throws IOException {
+        FileUtils.readAllBytes(new ByteArrayInputStream(new byte[0]), FileUtils.MAX_BUFFER_SIZE + 1);
+    }
+
+    @Test(timeout = 5000L)
+    public void processChunks() throws IOException {
+        byte[] data = random(100000);
+        Path path = file(data);
+        long zeros = 0;
+        for(byte part : data) {
+            zeros += part == 0 ? 1 : 0;
+        }
+        
+        long[] result = FileUtils.processChunks(path, 5000, (position, chunk) -> {
+            long count = 0;
+            while(chunk.hasRemaining()) {
+                count += chunk.get() == 0 ? 1 : 0;
+            }
+            return new long[] { position, count };
+        }, (left, right) -> new long[] { Math.min(left[0], right[0]), left[1] + right[1] });
+        assertEquals(0, result[0]);
+        assertEquals(zeros, result[1]);
+    }
+
+    @Test(timeout = 5000L)
+    public void processLines() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        Random random = new Random(5);
+        int lines = 3000;
+        for(int i = 0; i < lines; i++) {
+            int length = random.nextInt(i % 100 == 0 ? 500 : 50);
+            for(int j = 0; j < length; j++) {
+                builder.append((char)('a' + random.nextInt(26)));
+            }
+            builder.append('\n');
+        }
+        Path path = file(builder.toString().getBytes(StandardCharsets.US_ASCII));
+        
+        for(int chunkSize : new int[] { 64, 100, 4096, 10000, 1 << 20 }) {
+            List<String> records = FileUtils.processLines(path, chunkSize, (position, chunk) -> {
+                String text = StandardCharsets.US_ASCII.decode(chunk).toString();
+                assertTrue(text.endsWith("\n"));
+                assertTrue(position == 0 || builder.charAt((int)position - 1) == '\n');
+                String[] parts = text.split("\n", -1);
+                return new ArrayList<>(Arrays.asList(parts).subList(0, parts.length - 1));
+            }, (left, right) -> {
+                left.addAll(right);
+                return left;
+            });
+            assertEquals(lines, records.size());
+            assertEquals(builder.toString(), String.join("\n", records) + "\n");
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.cuba.io.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class MappedFileTest {
+
+    private static Path file(byte[] data) throws IOException {
+        Path path = Files.createTempFile("cuba", ".bin");
+        path.toFile().deleteOnExit();
+        Files.write(path, data);
+        return path;
+    }
+
+    @Test(timeout = 1000L)
+    public void segments() throws IOException {
+        byte[] data = new byte[10000];
+        new Random(3).nextBytes(data);
+        Path path = file(data);
+        
+        try(MappedFile file = new MappedFile(path, 10)) {
+            assertEquals(data.length, file.size());
+            assertEquals(10, file.segmentCount());
+            assertEquals(data[1023], file.get(1023));
+            assertEquals(data[1024], file.get(1024));
+            assertEquals(data[9999], file.get(9999));
+            
+            byte[] part = new byte[3000];
+            assertEquals(3000, file.get(1000, part, 0, 3000));
+            assertArrayEquals(Arrays.copyOfRange(data, 1000, 4000), part);
+            assertEquals(500, file.get(9500, part, 0, 3000));
+            assertArrayEquals(Arrays.copyOfRange(data, 9500, 10000), Arrays.copyOf(part, 500));
+        }
+    }
+
+    @Test(timeout = 1000L)
+    public void closeUnmaps() throws IOException {
+        Path path = file(new byte[] { 1, 2, 3 });
+        MappedFile file = FileUtils.map(path);
+        assertEquals(2, file.get(1));
+        file.close();
+        file.close();
+        
+        try {
+            file.get(1);
+        } catch(IllegalStateException ise) {
+            Files.delete(path);
+            return;
+        }
+        throw new AssertionError("Closed file is readable");
+    }
+
+    @Test(timeout = 5000L)
+    public void closeWhileReading() throws Exception {
+        byte[] data = new byte[1 << 16];
+        new Random(5).nextBytes(data);
+        Path path = file(data);
+        for(int n = 0; n < 20; n++) {
+            MappedFile file = new MappedFile(path, 12);
+            AtomicLong reads = new AtomicLong();
+            Thread[] readers = new Thread[4];
+            for(int t = 0; t < readers.length; t++) {
+                readers[t] = new Thread(() -> {
+                    byte[] part = new byte[5000];
+                    try {
+                        while(true) {
+                            file.get(reads.get() % (data.length - part.length), part, 0, part.length);
+                            reads.incrementAndGet();
+                        }
+                    } catch(IllegalStateException ise) {
+                        // closed
+                    }
+                });
+                readers[t].start();
+            }
+            while(reads.get() < 100) {
+                Thread.yield();
+            }
+            file.close();
+            for(Thread reader : readers) {
+                reader.join();
+            }
+        }
+        Files.delete(path);
+    }
+
+    @Test(timeout = 1000L)
+    public void emptyFile() throws IOException {
+        try(MappedFile file = FileUtils.map(file(new byte[0]))) {
+            assertEquals(0, file.size());
+            assertEquals(0, file.segmentCount());
+            assertEquals(0, file.get(0, new byte[1], 0, 1));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.cuba.io.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class SharedBufferPoolTest {
+
+    @Test(timeout = 500L)
+    public void sizeClasses() {
+        SharedBufferPool pool = new SharedBufferPool(4000, 2, false);
+        assertEquals(4096, pool.getMaxLength());
+        assertEquals(64, pool.acquire(1).length);
+        assertEquals(128, pool.acquire(65).length);
+        assertEquals(4096, pool.acquire(4096).length);
+        assertEquals(5000, pool.acquire(5000).length);
+        
+        byte[] array = pool.acquire(1000);
+        pool.release(array);
+        assertSame(array, pool.acquire(600));
+        
+        byte[] foreign = new byte[1000];
+        pool.release(foreign);
+        assertNotSame(foreign, pool.acquire(1000));
+    }
+
+    @Test(timeout = 500L)
+    public void sharedQueueIsBounded() {
+        SharedBufferPool pool = new SharedBufferPool(1024, 1, false);
+        byte[] first = pool.acquire(100);
+        byte[] second = pool.acquire(100);
+        byte[] third = pool.acquire(100);
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        
+        assertSame(first, pool.acquire(100));
+        assertSame(second, pool.acquire(100));
+        byte[] fresh = pool.acquire(100);
+        assertNotSame(first, fresh);
+        assertNotSame(second, fresh);
+        assertNotSame(third, fresh);
+    }
+
+    @Test(timeout = 500L)
+    public void directTier() {
+        SharedBufferPool pool = new SharedBufferPool(1024, 4, true);
+        ByteBuffer buffer = pool.acquireDirect(100);
+        assertTrue(buffer.isDirect());
+        assertEquals(128, buffer.capacity());
+        assertEquals(100, buffer.limit());
+        buffer.position(10);
+        pool.releaseDirect(buffer);
+        
+        ByteBuffer again = pool.acquireDirect(120);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(120, again.limit());
+    }
+
+    @Test(timeout = 5000L)
+    public void concurrentLeases() throws Exception {
+        SharedBufferPool pool = new SharedBufferPool(1 << 16, 8, true);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for(int t = 0; t < 8; t++) {
+                byte marker = (byte)t;
+                futures.add(executor.submit(() -> {
+                    for(int i = 0; i < 10000; i++) {
+                        byte[] array = pool.acquire(64 + i % 5000);
+                        array[0] = marker;
+                        array[array.length - 1] = marker;
+                        Thread.yield();
+                        assertEquals(marker, array[0]);
+                        assertEquals(marker, array[array.length - 1]);
+                        pool.release(array);
+                    }
+                    return null;
+                }));
+            }
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
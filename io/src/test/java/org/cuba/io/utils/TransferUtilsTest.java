@@ -0,0 +1,106 @@
+package org.cuba.io.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TransferUtilsTest {
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static Path file(byte[] data) throws IOException {
+        Path path = Files.createTempFile("cuba", ".bin");
+        path.toFile().deleteOnExit();
+        Files.write(path, data);
+        return path;
+    }
+
+    @Test(timeout = 5000L)
+    public void files() throws IOException {
+        byte[] data = random(300000);
+        Path source = file(data);
+        Path target = file(new byte[10]);
+        
+        TransferResult result = TransferUtils.transfer(source, target);
+        assertEquals(TransferResult.Method.TRANSFER_TO, result.getMethod());
+        assertEquals(data.length, result.getBytes());
+        assertTrue(result.getNanos() >= 0);
+        assertArrayEquals(data, Files.readAllBytes(target));
+        
+        result = TransferUtils.transfer(source, target, StandardOpenOption.APPEND);
+        assertEquals(data.length * 2L, Files.size(target));
+    }
+
+    @Test(timeout = 5000L)
+    public void channels() throws IOException {
+        byte[] data = random(200000);
+        Path target = file(new byte[5]);
+        try(FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            channel.position(5);
+            TransferResult result = TransferUtils.transfer(Channels.newChannel(new ByteArrayInputStream(data)), channel);
+            assertEquals(TransferResult.Method.TRANSFER_FROM, result.getMethod());
+            assertEquals(data.length, result.getBytes());
+            assertEquals(data.length + 5L, channel.position());
+        }
+        byte[] written = Files.readAllBytes(target);
+        assertArrayEquals(data, Arrays.copyOfRange(written, 5, written.length));
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TransferResult result = TransferUtils.transfer(Channels.newChannel(new ByteArrayInputStream(data)), Channels.newChannel(output));
+        assertEquals(TransferResult.Method.DIRECT_BUFFER, result.getMethod());
+        assertEquals(data.length, result.getBytes());
+        assertArrayEquals(data, output.toByteArray());
+    }
+
+    @Test(timeout = 5000L, expected = IllegalBlockingModeException.class)
+    public void nonBlockingTarget() throws IOException {
+        Pipe pipe = Pipe.open();
+        try(Pipe.SinkChannel sink = pipe.sink()) {
+            sink.configureBlocking(false);
+            TransferUtils.transfer(Channels.newChannel(new ByteArrayInputStream(random(1000000))), sink);
+        } finally {
+            pipe.source().close();
+        }
+    }
+
+    @Test(timeout = 5000L)
+    public void streams() throws IOException {
+        byte[] data = random(100000);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try(InputStream input = new FileInputStream(file(data).toFile())) {
+            assertEquals(100, input.skip(100));
+            TransferResult result = TransferUtils.transfer(input, output);
+            assertEquals(TransferResult.Method.TRANSFER_TO, result.getMethod());
+            assertEquals(data.length - 100, result.getBytes());
+            assertEquals(-1, input.read());
+        }
+        assertArrayEquals(Arrays.copyOfRange(data, 100, data.length), output.toByteArray());
+        
+        output.reset();
+        TransferResult result = TransferUtils.transfer(new ByteArrayInputStream(data), output);
+        assertEquals(TransferResult.Method.HEAP_BUFFER, result.getMethod());
+        assertEquals(data.length, result.getBytes());
+        assertArrayEquals(data, output.toByteArray());
+    }
+}